@@ -0,0 +1,91 @@
+package haiku;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+
+/**
+ * Checks that generating a haiku allocates no more than a fixed budget of heap memory.
+ *
+ * The check generates a number of haikus from fixed seeds on the current thread, after a warm-up that
+ * builds the dictionary indexes and loads every class, and reads the thread's allocated bytes before
+ * and after (see com.sun.management.ThreadMXBean). It prints the average bytes allocated per haiku,
+ * and exits with status 1 if that is over the budget, or with status 2 if the JVM cannot measure
+ * allocation.
+ *
+ * Generation prints its search traces to System.out; they are discarded while measuring, but building
+ * them still allocates, and is part of the budget.
+ *
+ * Usage: java haiku.AllocationBudgetCheck [budget in bytes per haiku] [haikus] [dictionary file]
+ */
+public class AllocationBudgetCheck
+{
+	//-- about 25% over the bytes per haiku measured on the full dictionary (9.5 KB, of which about 7 KB
+	//   are the trace strings; without them, the search and the output buffer allocate about 2.5 KB)
+	public static final long DEFAULT_BUDGET = 12 * 1024;
+	public static final int DEFAULT_HAIKUS = 2000;
+
+	//-- the seed that the measured haikus' seeds are derived from
+	private static final long SEED = 0xA110CL;
+
+	//-- haikus generated (from other seeds) before measuring
+	private static final int WARMUP_HAIKUS = 500;
+
+
+
+	public static void main(String[] args) throws Exception
+	{
+		long budget = (args.length > 0) ? Long.parseLong(args[0]) : DEFAULT_BUDGET;
+		int haikus = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_HAIKUS;
+		String dictionaryFile = (args.length > 2) ? args[2] : "dictionary.txt";
+
+		if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+		{
+			System.err.println("This JVM cannot measure allocated bytes per thread");
+			System.exit(2);
+		}
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		if (!threads.isThreadAllocatedMemorySupported())
+		{
+			System.err.println("This JVM cannot measure allocated bytes per thread");
+			System.exit(2);
+		}
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		HaikuGenerator generator = new HaikuGenerator();
+		generator.loadDictionary("full", dictionaryFile);
+		generator.useDictionary("full");
+
+		//-- generation prints traces to System.out
+		PrintStream console = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+		long thread = Thread.currentThread().getId();
+		long allocated;
+		try
+		{
+			for (int i = 0; i < WARMUP_HAIKUS; i++)
+				generator.generate(HaikuCoordinator.seedFor(~SEED, i));
+
+			long before = threads.getThreadAllocatedBytes(thread);
+			for (int i = 0; i < haikus; i++)
+				generator.generate(HaikuCoordinator.seedFor(SEED, i));
+			allocated = threads.getThreadAllocatedBytes(thread) - before;
+		}
+		finally
+		{
+			System.setOut(console);
+		}
+
+		long perHaiku = allocated / haikus;
+		System.out.printf(Locale.ROOT, "%d haikus: %d bytes allocated per haiku (budget %d)%n", haikus, perHaiku, budget);
+
+		if (perHaiku > budget)
+		{
+			System.out.printf(Locale.ROOT, "Over budget by %d bytes (%+.1f%%)%n", perHaiku - budget, 100.0 * (perHaiku - budget) / budget);
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package haiku;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * Checks that rolling back the graph when the search backtracks (see HaikuGenerator.setBacktrackRollback)
+ * takes fewer retries than stepping on from the failed vertex with the abandoned branch's edge changes.
+ *
+ * Both runs generate the same haikus from the same fixed seeds, on a small subset of the dictionary
+ * (where dead ends are common), so the retry counts are exactly repeatable. The check prints both
+ * counts, and exits with status 1 if rolling back does not take fewer retries.
+ *
+ * Usage: java haiku.BacktrackRollbackCheck [haikus] [dictionary file]
+ */
+public class BacktrackRollbackCheck
+{
+	public static final int DEFAULT_HAIKUS = 1000;
+
+	//-- the seed that the haikus' seeds are derived from
+	private static final long SEED = 0xBAC4L;
+
+
+
+	public static void main(String[] args) throws Exception
+	{
+		int haikus = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_HAIKUS;
+		String dictionaryFile = (args.length > 1) ? args[1] : "dictionary.txt";
+
+		HaikuGenerator generator = new HaikuGenerator();
+		Dictionary full = generator.loadDictionary("full", dictionaryFile);
+		generator.getDictionaries().register("small", SoakHarness.sample(full, 60, 60, 60));
+		generator.useDictionary("small");
+
+		//-- generation prints traces to System.out
+		PrintStream console = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+		long withRollback;
+		long withoutRollback;
+		try
+		{
+			generator.setBacktrackRollback(true);
+			withRollback = retries(generator, haikus);
+
+			generator.setBacktrackRollback(false);
+			withoutRollback = retries(generator, haikus);
+		}
+		finally
+		{
+			System.setOut(console);
+		}
+
+		System.out.printf(Locale.ROOT, "%d haikus: %d retries with rollback, %d without%n", haikus, withRollback, withoutRollback);
+
+		if (withRollback >= withoutRollback)
+		{
+			System.out.println("Rolling back did not reduce retries");
+			System.exit(1);
+		}
+	}
+
+
+	/**
+	 * Generates the haikus from the fixed seeds, and returns the number of retries they took.
+	 */
+	private static long retries(HaikuGenerator generator, int haikus)
+	{
+		HaikuMetrics metrics = HaikuGenerator.getMetrics();
+		metrics.reset();
+
+		for (int i = 0; i < haikus; i++)
+			generator.generate(HaikuCoordinator.seedFor(SEED, i));
+
+		return metrics.getRetries();
+	}
+}
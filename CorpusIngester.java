@@ -0,0 +1,585 @@
+package haiku;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Builds a dictionary from the words of plain-text corpora.
+ *
+ * A corpus is streamed through a chain of stages that run in parallel, connected by bounded queues:
+ * the file is read (and decompressed) ahead of time by a DictionaryFiles.LineReader; batches of lines
+ * are tokenized, normalized to lower case, tagged with a part of speech by a pluggable Tagger, and
+ * checked with Dictionary.sylCount by several worker threads; and the words each batch contains are
+ * counted by a single counting thread. When a stage falls behind, the queue before it fills up and
+ * the stages before it wait, so only a fixed number of batches are ever in flight.
+ *
+ * The word counts are bounded too, by lossy counting: once more than (capacity) distinct words are
+ * being counted, the rarest are dropped, so memory stays bounded however large the corpus is. Each
+ * word keeps the number of times it was actually seen, and separately the most it could have been
+ * seen before it was last dropped. Only words actually seen at least minCount times are written out,
+ * in the format that Dictionary.load reads.
+ *
+ * Usage: java haiku.CorpusIngester (output file) (lexicon dictionary file) (corpus file)...
+ * Words are tagged by looking them up in the lexicon; corpus files may be gzip-compressed (".gz").
+ */
+public class CorpusIngester
+{
+	public static final int DEFAULT_CAPACITY = 1000000;
+	public static final int DEFAULT_MIN_COUNT = 2;
+
+	//-- words longer than this are not words
+	private static final int MAX_WORD_LENGTH = 24;
+
+	//-- no line of a haiku has room for a longer word
+	private static final int MAX_SYLLABLES = 7;
+
+	//-- number of lines handed to a worker at a time
+	private static final int BATCH_LINES = 1024;
+
+	//-- number of batches that may wait in each queue
+	private static final int QUEUE_BATCHES = 16;
+
+	//-- number of recently seen words whose classification each worker remembers
+	private static final int KNOWN_WORDS = 1 << 16;
+
+	//-- marks the end of the input in both queues
+	private static final String[] END_OF_LINES = new String[0];
+	private static final Counts END_OF_COUNTS = new Counts();
+
+
+	/**
+	 * Assigns a part of speech to a normalized (lower case) word.
+	 * Taggers are called from several threads at once.
+	 */
+	public interface Tagger
+	{
+		/**
+		 * @return the word's part of speech, or null if the word should be left out
+		 */
+		PartOfSpeech tag(String word);
+	}
+
+
+	private final Tagger tagger;
+	private final int workers;
+	private final int capacity;
+	private final int minCount;
+
+	//-- words counted so far, and the upper bound at or below which words have been dropped
+	private final Map<String, Counted> counts = new HashMap<String, Counted>();
+	private long pruned;
+
+	//-- statistics of the last ingestion
+	private long tokens;
+	private long tagged;
+
+	//-- the first exception thrown by a worker, re-thrown to the caller
+	private volatile RuntimeException failure;
+
+
+
+	/************************************\
+	 *         CONSTRUCTORS AND MAIN
+	 *
+	\************************************/
+
+	/**
+	 * Creates an ingester with one worker per available processor, and default limits.
+	 */
+	public CorpusIngester(Tagger tagger) {
+		this(tagger, Runtime.getRuntime().availableProcessors(), DEFAULT_CAPACITY, DEFAULT_MIN_COUNT);
+	}
+
+
+	/**
+	 * @param tagger assigns each word its part of speech
+	 * @param workers the number of threads that tokenize and tag lines
+	 * @param capacity the largest number of distinct words counted at once
+	 * @param minCount the number of times a word must be seen to be written out
+	 */
+	public CorpusIngester(Tagger tagger, int workers, int capacity, int minCount)
+	{
+		if (tagger == null || workers < 1 || capacity < 1 || minCount < 1)
+			throw new IllegalArgumentException("require a tagger, and positive workers, capacity and minCount");
+
+		this.tagger = tagger;
+		this.workers = workers;
+		this.capacity = capacity;
+		this.minCount = minCount;
+	}
+
+
+	/**
+	 * Returns a tagger that gives each word the part of speech it has in the given dictionary,
+	 * and leaves out words that the dictionary does not contain.
+	 */
+	public static Tagger lookup(final Dictionary dictionary)
+	{
+		return new Tagger()
+		{
+			@Override
+			public PartOfSpeech tag(String word) {
+				return dictionary.getPOS(word);
+			}
+		};
+	}
+
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 3)
+		{
+			System.err.println("usage: CorpusIngester <output file> <lexicon dictionary file> <corpus file>...");
+			System.exit(2);
+		}
+
+		CorpusIngester ingester = new CorpusIngester(lookup(new Dictionary(args[1])));
+
+		for (int i = 2; i < args.length; i++)
+		{
+			long startTime = System.nanoTime();
+			ingester.ingest(args[i]);
+			System.out.println("Ingested " + args[i] + " in " + (System.nanoTime() - startTime) / 1000000 + " ms");
+		}
+
+		Dictionary result = ingester.toDictionary();
+		if (!result.save(args[0]))
+		{
+			System.err.println("Could not save " + args[0]);
+			System.exit(1);
+		}
+
+		System.out.println(ingester.getTokens() + " words read, " + ingester.getTagged() + " tagged, "
+				+ result.size() + " written to " + args[0]);
+	}
+
+
+
+	/************************************\
+	 *         INGESTION
+	 *
+	\************************************/
+
+	/**
+	 * Streams a corpus file through the pipeline, adding its words to the counts.
+	 *
+	 * @throws IOException if the file cannot be read
+	 */
+	public synchronized void ingest(String filename) throws IOException
+	{
+		final BlockingQueue<String[]> lines = new ArrayBlockingQueue<String[]>(QUEUE_BATCHES);
+		final BlockingQueue<Counts> batches = new ArrayBlockingQueue<Counts>(QUEUE_BATCHES);
+		failure = null;
+
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int w = 0; w < workers; w++)
+		{
+			threads.add(new Thread("corpus-worker-" + w)
+			{
+				@Override
+				public void run() {
+					work(lines, batches);
+				}
+			});
+		}
+		threads.add(new Thread("corpus-counter")
+		{
+			@Override
+			public void run() {
+				count(batches);
+			}
+		});
+
+		for (Thread thread : threads)
+			thread.start();
+
+		DictionaryFiles.LineReader in = null;
+		try {
+			in = DictionaryFiles.openLines(filename);
+			dispatch(in, lines);
+		}
+		finally {
+			if (in != null)
+				in.close();
+
+			//-- the workers and the counter always stop, even if reading failed
+			for (int w = 0; w < workers; w++)
+				putUninterruptibly(lines, END_OF_LINES);
+
+			for (Thread thread : threads)
+				joinUninterruptibly(thread);
+		}
+
+		if (failure != null)
+			throw failure;
+	}
+
+
+	/**
+	 * Reads the corpus, handing its lines to the workers in batches.
+	 */
+	private void dispatch(DictionaryFiles.LineReader in, BlockingQueue<String[]> lines) throws IOException
+	{
+		String[] batch = new String[BATCH_LINES];
+		int size = 0;
+		String line;
+
+		while (failure == null && (line = in.readLine()) != null)
+		{
+			batch[size++] = line;
+
+			if (size == BATCH_LINES)
+			{
+				putUninterruptibly(lines, batch);
+				batch = new String[BATCH_LINES];
+				size = 0;
+			}
+		}
+
+		if (size > 0)
+			putUninterruptibly(lines, Arrays.copyOf(batch, size));
+	}
+
+
+	/**
+	 * Worker stage: tokenizes, normalizes and tags each batch of lines, and passes on how many times
+	 * each tagged word appeared in it.
+	 */
+	private void work(BlockingQueue<String[]> lines, BlockingQueue<Counts> batches)
+	{
+		StringBuilder token = new StringBuilder(MAX_WORD_LENGTH);
+		
+		//-- the classifications of recently seen words, most recently used last
+		Map<String, PartOfSpeech> known = new LinkedHashMap<String, PartOfSpeech>(KNOWN_WORDS * 2, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PartOfSpeech> eldest) {
+				return size() > KNOWN_WORDS;
+			}
+		};
+
+		try {
+			String[] batch;
+			while ((batch = takeUninterruptibly(lines)) != END_OF_LINES)
+			{
+				if (failure != null)
+					continue;    // drain the queue, so that the dispatcher is never left waiting
+
+				Counts result = new Counts();
+
+				for (String line : batch)
+					tokenize(line, token, known, result);
+
+				putUninterruptibly(batches, result);
+			}
+		}
+		catch (RuntimeException exception) {
+			fail(exception);
+			while (takeUninterruptibly(lines) != END_OF_LINES)
+				;
+		}
+		finally {
+			putUninterruptibly(batches, END_OF_COUNTS);
+		}
+	}
+
+
+	/**
+	 * Splits a line into words, and counts each one that is tagged and fits in a line of a haiku.
+	 * A word is a run of ASCII letters; runs that contain any other letter, a digit or an apostrophe
+	 * (such as contractions) are skipped.
+	 */
+	private void tokenize(String line, StringBuilder token, Map<String, PartOfSpeech> known, Counts result)
+	{
+		boolean valid = true;
+
+		for (int i = 0; i <= line.length(); i++)
+		{
+			char c = (i < line.length()) ? line.charAt(i) : ' ';
+
+			if (c >= 'a' && c <= 'z')
+				token.append(c);
+			else if (c >= 'A' && c <= 'Z')
+				token.append((char) (c + ('a' - 'A')));
+			else if (Character.isLetterOrDigit(c) || c == '\'' || c == '\u2019')
+				valid = false;
+			else
+			{
+				if (token.length() > 0)
+				{
+					result.tokens++;
+					if (valid && token.length() <= MAX_WORD_LENGTH)
+					{
+						String word = token.toString();
+						if (!result.increment(word))
+						{
+							PartOfSpeech pos = classify(word, known);
+							if (pos != PartOfSpeech.BLANK)
+								result.words.put(word, new Counted(pos, 1));
+						}
+					}
+				}
+
+				token.setLength(0);
+				valid = true;
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the part of speech of a word, or BLANK if it is not tagged or does not fit in a line of a haiku.
+	 */
+	private PartOfSpeech classify(String word, Map<String, PartOfSpeech> known)
+	{
+		PartOfSpeech pos = known.get(word);
+		if (pos != null)
+			return pos;
+
+		pos = tagger.tag(word);
+		int syllables = Dictionary.sylCount(word);
+
+		if (pos == null || syllables < 1 || syllables > MAX_SYLLABLES)
+			pos = PartOfSpeech.BLANK;
+
+		known.put(word, pos);
+		return pos;
+	}
+
+
+	/**
+	 * Counting stage: merges the counts of each batch into the totals, until every worker has finished.
+	 */
+	private void count(BlockingQueue<Counts> batches)
+	{
+		int finished = 0;
+
+		while (finished < workers)
+		{
+			Counts batch = takeUninterruptibly(batches);
+			if (batch == END_OF_COUNTS)
+			{
+				finished++;
+				continue;
+			}
+
+			tokens += batch.tokens;
+
+			for (Map.Entry<String, Counted> entry : batch.words.entrySet())
+			{
+				Counted added = entry.getValue();
+				Counted total = counts.get(entry.getKey());
+
+				tagged += added.count;
+				if (total == null)
+					counts.put(entry.getKey(), new Counted(added.pos, added.count, pruned));
+				else
+					total.count += added.count;
+			}
+
+			if (counts.size() > capacity)
+				prune();
+		}
+	}
+
+
+	/**
+	 * Drops the words with the lowest upper bounds, so that at most half of the capacity is in use. A word
+	 * that is first seen after a prune may have been seen (and dropped) before, up to as often as the most
+	 * common word dropped; that is kept as its error bound, apart from the count of times it was seen.
+	 */
+	private void prune()
+	{
+		long[] sorted = new long[counts.size()];
+		int n = 0;
+		for (Counted counted : counts.values())
+			sorted[n++] = counted.upperBound();
+		Arrays.sort(sorted);
+
+		pruned = Math.max(pruned, sorted[sorted.length - capacity / 2 - 1]);
+
+		Iterator<Counted> it = counts.values().iterator();
+		while (it.hasNext())
+			if (it.next().upperBound() <= pruned)
+				it.remove();
+	}
+
+
+
+	/************************************\
+	 *         RESULTS
+	 *
+	\************************************/
+
+	/**
+	 * Returns a dictionary of every word actually seen at least minCount times (since it was last
+	 * dropped, if it ever was), with its part of speech.
+	 */
+	public synchronized Dictionary toDictionary()
+	{
+		Dictionary result = new Dictionary();
+
+		for (Map.Entry<String, Counted> entry : counts.entrySet())
+			if (entry.getValue().count >= minCount)
+				result.add(entry.getKey() + " ", entry.getValue().pos);
+
+		return result;
+	}
+
+
+	/**
+	 * Returns the number of times a word has been seen since it was last dropped (a lower bound of the
+	 * number of times it appears, if rare words were dropped).
+	 */
+	public synchronized long getCount(String word)
+	{
+		Counted counted = counts.get(word);
+		return (counted == null) ? 0 : counted.count;
+	}
+
+
+	/**
+	 * Returns the number of words read from all corpora so far.
+	 */
+	public synchronized long getTokens() {
+		return tokens;
+	}
+
+
+	/**
+	 * Returns the number of words read that were tagged and counted.
+	 */
+	public synchronized long getTagged() {
+		return tagged;
+	}
+
+
+
+	/************************************\
+	 *         QUEUES AND BATCHES
+	 *
+	\************************************/
+
+	/**
+	 * Words tagged in one batch of lines, with the number of times each appeared.
+	 */
+	private static class Counts
+	{
+		final Map<String, Counted> words = new HashMap<String, Counted>();
+		long tokens;
+
+		/**
+		 * Counts another appearance of a word, returning false if it has not appeared in the batch yet.
+		 */
+		boolean increment(String word)
+		{
+			Counted counted = words.get(word);
+			if (counted == null)
+				return false;
+
+			counted.count++;
+			return true;
+		}
+	}
+
+
+	private static class Counted
+	{
+		final PartOfSpeech pos;
+		long count;
+
+		//-- the most times the word may have been seen before it started being counted
+		final long delta;
+
+		Counted(PartOfSpeech pos, long count) {
+			this(pos, count, 0);
+		}
+
+		Counted(PartOfSpeech pos, long count, long delta)
+		{
+			this.pos = pos;
+			this.count = count;
+			this.delta = delta;
+		}
+
+		long upperBound() {
+			return count + delta;
+		}
+	}
+
+
+	private void fail(RuntimeException exception)
+	{
+		//-- not synchronized on this: ingest() holds that lock while it waits for the workers
+		synchronized (counts) {
+			if (failure == null)
+				failure = exception;
+		}
+	}
+
+
+	//-- the pipeline's threads are never interrupted by anyone else; waits are retried so that no END marker is lost
+
+	private static <T> void putUninterruptibly(BlockingQueue<T> queue, T item)
+	{
+		boolean interrupted = false;
+		while (true)
+		{
+			try {
+				queue.put(item);
+				break;
+			} catch (InterruptedException exception) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+
+	private static <T> T takeUninterruptibly(BlockingQueue<T> queue)
+	{
+		boolean interrupted = false;
+		try {
+			while (true)
+			{
+				try {
+					return queue.take();
+				} catch (InterruptedException exception) {
+					interrupted = true;
+				}
+			}
+		}
+		finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+
+	private static void joinUninterruptibly(Thread thread)
+	{
+		boolean interrupted = false;
+		while (true)
+		{
+			try {
+				thread.join();
+				break;
+			} catch (InterruptedException exception) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+}
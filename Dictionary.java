@@ -1,15 +1,22 @@
 package haiku;
 
-import java.io.File;
+import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Scanner;
+import java.util.Random;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 
 public class Dictionary 
@@ -17,13 +24,60 @@ public class Dictionary
 	//-- stores information about loaded words
 	private Map<String, PartOfSpeech> dictionary;
 	
+	//-- words grouped by part of speech, then by syllable count, without excluded words; rebuilt on first 
+	//   use after any change to the words or the exclusions
+	private volatile Map<PartOfSpeech, List<List<String>>> index;
+	
+	//-- the same index including excluded words, so that changing the exclusions does not count syllables
+	//   again, and the id of every word in it; guarded by this
+	private Map<PartOfSpeech, List<List<String>>> fullIndex;
+	private Map<PartOfSpeech, int[][]> fullIndexIds;
+	
+	//-- words that are never returned by the index lookups (wordList, randomWord, rhymes and alliterations)
+	private volatile List<String> exclusions = Collections.emptyList();
+	
+	//-- words grouped by part of speech, syllable count and sound (rhyme and alliteration keys), without
+	//   excluded words; derived on first use after any change to the words or the exclusions
+	private volatile SoundIndex sounds;
+	
+	//-- the same index including excluded words, so that changing the exclusions does not compute sound
+	//   keys again; guarded by this
+	private SoundIndex fullSounds;
+	
+	//-- all words in sorted order, so that each word has a numeric id; rebuilt on first use after any change
+	private volatile String[] ids;
+	
+	//-- pool that loaded words are interned in, shared with other dictionaries (may be null)
+	private final WordPool pool;
+	
+	//-- the patterns that syllable counting tests, compiled once (String.matches compiles on every call)
+	private static final Pattern SILENT_ENDING = Pattern.compile(".*[A-Z && [^AEIOUY]]ED?" + "LY?");
+	private static final Pattern[] DIPHTHONGS = {
+			Pattern.compile(".*A[EIUY].*"),
+			Pattern.compile(".*E[AEIUY].*"),
+			Pattern.compile(".*I[AEOU].*"),
+			Pattern.compile(".*O[AIOUY].*"),
+			Pattern.compile(".*U[AEIUY].*"),
+			Pattern.compile(".*[A-Z&&[^AEIOU]]Y[AEIOU].*")
+	};
+	
 	
 	/**
 	 * Creates an empty Dictionary.
 	 */
 	public Dictionary() 
+	{
+		this((WordPool) null);
+	}
+	
+	
+	/**
+	 * Creates an empty Dictionary, whose words will share storage with others interned in the given pool.
+	 */
+	public Dictionary(WordPool pool) 
 	{
 		dictionary = new HashMap<String, PartOfSpeech>();
+		this.pool = pool;
 	}
 	
 	
@@ -34,7 +88,19 @@ public class Dictionary
 	 */
 	public Dictionary(String filename) throws IOException 
 	{
-		dictionary = new HashMap<String, PartOfSpeech>();
+		this(filename, null);
+	}
+	
+	
+	/**
+	 * Loads the specified dictionary text file into memory, interning its words in the given pool.
+	 * @param filename the dictionary text file to initially load
+	 * @param pool the pool shared with other dictionaries, or null
+	 * @throws IOException specified dictionary txt file not found
+	 */
+	public Dictionary(String filename, WordPool pool) throws IOException 
+	{
+		this(pool);
 		
 		load(filename);
 	}
@@ -42,6 +108,10 @@ public class Dictionary
 	
 	/**
 	 * Read the given dictionary text file, and add its contents to this class' internal dictionary.
+	 * Files ending in ".txt.gz" are decompressed as they are read.
+	 * 
+	 * The file is streamed: it is decompressed and split into lines on a background thread while
+	 * earlier lines are parsed, and never held in memory as a whole.
 	 * 
 	 * @param filename the filename of a dictionary text file
 	 * 
@@ -51,17 +121,20 @@ public class Dictionary
 	 */
 	public boolean load(String filename) throws IOException
 	{
-		if (filename == null)
-			return false;
-		if (!filename.toUpperCase().endsWith(".TXT"))
+		if (!DictionaryFiles.isDictionaryFile(filename))
 			return false;
 
-		Scanner inFile = new Scanner(new File(filename));		
+		DictionaryFiles.LineReader inFile = DictionaryFiles.openLines(filename);		
+		invalidate();
 
-		while(inFile.hasNextLine()) 	
-			loadItem(inFile.nextLine());
-		
-		inFile.close();
+		try {
+			String line;
+			while((line = inFile.readLine()) != null) 	
+				loadItem(line);
+		} 
+		finally {
+			inFile.close();
+		}
 		return true;
 	}
 	
@@ -76,7 +149,7 @@ public class Dictionary
 		String posString = entry.substring(entry.indexOf('|') + 1);
 		
 		//prune everything in line after delimiter
-		String word = entry.substring(0, entry.indexOf('|'));
+		String word = intern(entry.substring(0, entry.indexOf('|')));
 		
 		if(posString.contains(" ADJECTIVE")) 
 		{
@@ -120,23 +193,35 @@ public class Dictionary
 
 	
 	/**
-	 * Saves the dictionary loaded in memory to a specified text file.
+	 * Saves the dictionary loaded in memory to a specified text file, with its words in sorted order.
+	 * Files ending in ".txt.gz" are compressed as they are written.
 	 * 
 	 * @return true if the dictionary was saved successfully to the text file.
 	 */
 	public boolean save(String filename) 
 	{
-		if (filename == null)
-			return false;
-		if (!filename.toUpperCase().endsWith(".TXT"))
+		if (!DictionaryFiles.isDictionaryFile(filename))
 			return false;
 		
 		try {
-			PrintWriter outFile = new PrintWriter(filename);
-			for( Entry<String, PartOfSpeech> element : dictionary.entrySet())
-				outFile.println(element.getKey() + " | " + element.getValue());
-			
-			outFile.close();
+			BufferedWriter outFile = DictionaryFiles.openWriter(filename);
+			try {
+				for(String word : ids()) 
+				{
+					//-- loaded words keep the space before the delimiter, so it is not written twice
+					int end = word.length();
+					while(end > 0 && word.charAt(end - 1) == ' ')
+						end--;
+					
+					outFile.write(word, 0, end);
+					outFile.write(" | ");
+					outFile.write(String.valueOf(getPOS(word)));
+					outFile.newLine();
+				}
+			} 
+			finally {
+				outFile.close();
+			}
 			return true;
 			
 		} catch (IOException exception) {
@@ -153,38 +238,33 @@ public class Dictionary
 	\**********************************************************/
 	
 	/**
-	 * Returns a set containing all dictionary words with the given part of speech.
+	 * Returns a set containing all dictionary words with the given part of speech, except excluded words
+	 * (see setExclusions).
 	 */
 	public Set<String> wordSet(PartOfSpeech pos) 
 	{
 		Set<String> set = new HashSet<String>();
+		List<List<String>> buckets = index().get(pos);
 		
-		for( Entry<String, PartOfSpeech> element : dictionary.entrySet())
-			if(element.getValue() == pos)
-				set.add(element.getKey());
+		if(buckets != null)
+			for(List<String> words : buckets)
+				set.addAll(words);
 		
 		return set;
 	}
 	
 	/**
 	 * Returns a set containing all dictionary words that have both the specified part of speech,
-	 *  and the specified number of syllables
+	 *  and the specified number of syllables, except excluded words (see setExclusions).
 	 */
-	public Set<String> wordSet(PartOfSpeech pos, int syl) 
-	{
-		Set<String> set = new HashSet<String>();
-		
-		for( Entry<String, PartOfSpeech> item : dictionary.entrySet())
-			if(item.getValue() == pos)
-				if(sylCount(item.getKey()) == syl)
-					set.add(item.getKey());
-		
-		return set;
+	public Set<String> wordSet(PartOfSpeech pos, int syl) {
+		return new HashSet<String>(wordList(pos, syl));
 	}
 	
 	/**
 	 * Returns a set containing all the dictionary words that have the specified part of speech, 
-	 * as well as a syllable count between sMin and sMax (inclusive).
+	 * as well as a syllable count between sMin and sMax (inclusive), except excluded words (see 
+	 * setExclusions).
 	 * 
 	 * @param pos the part of speech
 	 * @param sMin the smallest number of syllables usable
@@ -197,23 +277,575 @@ public class Dictionary
 		System.out.println("INITIAL WORDSET SIZE: " + set.size()
 				+ "\n Populating with " + pos + " with length between " + sMin + " and " + sMax);
 		
-		for(Entry<String, PartOfSpeech> item : dictionary.entrySet())
-			if(item.getValue() == pos) 
+		for(int syl = sMin; syl <= sMax; syl++)
+			set.addAll(wordList(pos, syl));
+		
+		System.out.println("RETURNING WORD SET WITH SIZE: " + set.size());
+		return set;
+	}
+	
+	/**
+	 * Returns an unmodifiable list of all dictionary words that have both the specified part of speech
+	 * and exactly the specified number of syllables.
+	 * 
+	 * Unlike wordSet(), this does not copy any words; it reads from an index of words grouped by part of 
+	 * speech and syllable count, which is built once and reused until the dictionary changes.
+	 */
+	public List<String> wordList(PartOfSpeech pos, int syl) 
+	{
+		List<List<String>> buckets = index().get(pos);
+		
+		if(buckets == null || syl < 0 || syl >= buckets.size())
+			return Collections.emptyList();
+		
+		return buckets.get(syl);
+	}
+	
+	/**
+	 * Returns a random word with the specified part of speech and number of syllables,
+	 * or null if the dictionary contains no such word.
+	 */
+	public String randomWord(PartOfSpeech pos, int syl, Random random) 
+	{
+		List<String> words = wordList(pos, syl);
+		
+		if(words.isEmpty())
+			return null;
+		
+		return words.get(random.nextInt(words.size()));
+	}
+	
+	/**
+	 * Returns a random word with the specified part of speech and a syllable count between sMin and sMax 
+	 * (inclusive), or null if the dictionary contains no such word. Every matching word is equally likely.
+	 */
+	public String randomWord(PartOfSpeech pos, int sMin, int sMax, Random random) 
+	{
+		int total = 0;
+		for(int syl = sMin; syl <= sMax; syl++)
+			total += wordList(pos, syl).size();
+		
+		if(total == 0)
+			return null;
+		
+		int target = random.nextInt(total);
+		for(int syl = sMin; syl <= sMax; syl++) 
+		{
+			List<String> words = wordList(pos, syl);
+			
+			if(target < words.size())
+				return words.get(target);
+			
+			target -= words.size();
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the syllable count of a random word with the specified part of speech and a syllable count
+	 * between sMin and sMax (inclusive), or -1 if the dictionary contains no such word. Every matching word
+	 * is equally likely, so a word drawn from wordList(pos, result) is distributed as randomWord(pos, sMin,
+	 * sMax, random) is, and its syllables need not be counted.
+	 */
+	public int randomSyllables(PartOfSpeech pos, int sMin, int sMax, Random random) 
+	{
+		int total = 0;
+		for(int syl = sMin; syl <= sMax; syl++)
+			total += wordList(pos, syl).size();
+		
+		if(total == 0)
+			return -1;
+		
+		int target = random.nextInt(total);
+		for(int syl = sMin; syl <= sMax; syl++) 
+		{
+			target -= wordList(pos, syl).size();
+			if(target < 0)
+				return syl;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns the (part of speech x syllable count) index without excluded words, building it if the 
+	 * dictionary or the exclusions have changed.
+	 */
+	private Map<PartOfSpeech, List<List<String>>> index() 
+	{
+		Map<PartOfSpeech, List<List<String>>> current = index;
+		if(current != null)
+			return current;
+		
+		synchronized(this) 
+		{
+			if(index == null) 
+			{
+				buildFullIndex();
+				index = exclude(fullIndex, fullIndexIds, exclusionMask());
+			}
+			
+			return index;
+		}
+	}
+	
+	/**
+	 * Builds the index including excluded words, and the ids of its words, if the dictionary has changed.
+	 */
+	private synchronized void buildFullIndex() 
+	{
+		if(fullIndex == null) 
+		{
+			fullIndex = buildIndex();
+			fullIndexIds = idsOf(fullIndex);
+		}
+	}
+	
+	private Map<PartOfSpeech, List<List<String>>> buildIndex() 
+	{
+		Map<PartOfSpeech, List<List<String>>> buckets = new EnumMap<PartOfSpeech, List<List<String>>>(PartOfSpeech.class);
+		
+		for(String word : words()) 
+		{
+			PartOfSpeech pos = getPOS(word);
+			
+			List<List<String>> bySyllable = buckets.get(pos);
+			if(bySyllable == null) 
+			{
+				bySyllable = new ArrayList<List<String>>();
+				buckets.put(pos, bySyllable);
+			}
+			
+			int syl = Math.max(sylCount(word), 0);
+			while(bySyllable.size() <= syl)
+				bySyllable.add(new ArrayList<String>());
+			
+			bySyllable.get(syl).add(word);
+		}
+		
+		//-- freeze the buckets, so that callers cannot modify the index
+		for(List<List<String>> bySyllable : buckets.values())
+			for(int i = 0; i < bySyllable.size(); i++)
+				bySyllable.set(i, Collections.unmodifiableList(bySyllable.get(i)));
+		
+		return buckets;
+	}
+	
+	/**
+	 * Returns the ids of the words in the index, laid out in the same buckets.
+	 */
+	private Map<PartOfSpeech, int[][]> idsOf(Map<PartOfSpeech, List<List<String>>> full) 
+	{
+		String[] all = ids();
+		Map<PartOfSpeech, int[][]> result = new EnumMap<PartOfSpeech, int[][]>(PartOfSpeech.class);
+		
+		for(Entry<PartOfSpeech, List<List<String>>> entry : full.entrySet()) 
+		{
+			int[][] bySyllable = new int[entry.getValue().size()][];
+			
+			for(int syl = 0; syl < bySyllable.length; syl++) 
 			{
-				int syl = sylCount(item.getKey());
+				List<String> words = entry.getValue().get(syl);
+				bySyllable[syl] = new int[words.size()];
 				
-				if(sMin <= syl && syl <= sMax)
-					set.add(item.getKey());
+				for(int i = 0; i < words.size(); i++)
+					bySyllable[syl][i] = Arrays.binarySearch(all, words.get(i));
 			}
-		System.out.println("RETURNING WORD SET WITH SIZE: " + set.size());
-		return set;
+			
+			result.put(entry.getKey(), bySyllable);
+		}
+		
+		return result;
 	}
 	
 	/**
-	 *  Returns the part of speech of the given word.
+	 * Returns a copy of the index without the words whose ids are set in the mask, or the index itself
+	 * if the mask is empty. This only tests a bit per word; no syllables are counted.
 	 */
-	public PartOfSpeech getPOS(String word) {
-		return dictionary.get(word);
+	private static Map<PartOfSpeech, List<List<String>>> exclude(Map<PartOfSpeech, List<List<String>>> full, 
+			Map<PartOfSpeech, int[][]> fullIds, BitSet mask) 
+	{
+		if(mask.isEmpty())
+			return full;
+		
+		Map<PartOfSpeech, List<List<String>>> buckets = new EnumMap<PartOfSpeech, List<List<String>>>(PartOfSpeech.class);
+		
+		for(Entry<PartOfSpeech, List<List<String>>> entry : full.entrySet()) 
+		{
+			int[][] ids = fullIds.get(entry.getKey());
+			List<List<String>> bySyllable = new ArrayList<List<String>>(ids.length);
+			
+			for(int syl = 0; syl < ids.length; syl++) 
+			{
+				List<String> words = entry.getValue().get(syl);
+				List<String> kept = new ArrayList<String>(words.size());
+				
+				for(int i = 0; i < ids[syl].length; i++)
+					if(!mask.get(ids[syl][i]))
+						kept.add(words.get(i));
+				
+				bySyllable.add(Collections.unmodifiableList(kept));
+			}
+			
+			buckets.put(entry.getKey(), bySyllable);
+		}
+		
+		return buckets;
+	}
+	
+	/**
+	 * Returns a bitmap over the word ids, with the bit of every excluded word set.
+	 */
+	private BitSet exclusionMask() 
+	{
+		String[] all = ids();
+		BitSet mask = new BitSet(all.length);
+		
+		for(String excluded : exclusions) 
+			for(int id : idsOf(all, excluded)) 
+				if(id >= 0)
+					mask.set(id);
+		
+		return mask;
+	}
+	
+	/**
+	 * Returns the ids (positions in the sorted word array) of the given word without and with a trailing
+	 * space, or -1 for a form that is not in the array: loaded words keep the space before their 
+	 * delimiter, so callers may pass either.
+	 */
+	static int[] idsOf(String[] all, String word) 
+	{
+		String trimmed = word.trim();
+		return new int[] { 
+				Math.max(Arrays.binarySearch(all, trimmed), -1), 
+				Math.max(Arrays.binarySearch(all, trimmed + " "), -1) };
+	}
+	
+	/**
+	 * Replaces the list of excluded words. Excluded words stay in the dictionary (contains and getPOS 
+	 * still find them), but are never returned by wordSet, wordList, randomWord, or the rhyme and 
+	 * alliteration lookups, so they are never drawn at all.
+	 * 
+	 * Lookups that are already running finish with the previous exclusions; the next lookup filters the 
+	 * cached full indexes by word id, without reloading the dictionary, counting syllables, or computing
+	 * rhyme and alliteration keys.
+	 * 
+	 * @param words the words to exclude (with or without a trailing space), or an empty collection for none
+	 */
+	public synchronized void setExclusions(Collection<String> words) 
+	{
+		exclusions = Collections.unmodifiableList(new ArrayList<String>(words));
+		index = null;
+		sounds = null;
+	}
+	
+	/**
+	 * Returns the words currently excluded from lookups.
+	 */
+	public List<String> getExclusions() {
+		return exclusions;
+	}
+	
+	/**
+	 * Returns an unmodifiable list of all dictionary words with the specified part of speech and number of 
+	 * syllables that rhyme with the given word (that share its rhymeKey). This is a single index lookup.
+	 */
+	public List<String> rhymingWords(PartOfSpeech pos, int syl, String word) {
+		return sounds().lookup(sounds().rhymes, pos, syl, rhymeKey(word));
+	}
+	
+	/**
+	 * Returns an unmodifiable list of all dictionary words with the specified part of speech and number of 
+	 * syllables that alliterate with the given word (that share its alliterationKey). This is a single 
+	 * index lookup.
+	 */
+	public List<String> alliteratingWords(PartOfSpeech pos, int syl, String word) {
+		return sounds().lookup(sounds().onsets, pos, syl, alliterationKey(word));
+	}
+	
+	/**
+	 * Returns a random word with the specified part of speech and number of syllables that rhymes
+	 * with the given word, or null if there is none.
+	 */
+	public String randomRhyme(PartOfSpeech pos, int syl, String word, Random random) 
+	{
+		List<String> words = rhymingWords(pos, syl, word);
+		return words.isEmpty() ? null : words.get(random.nextInt(words.size()));
+	}
+	
+	/**
+	 * Returns a random word with the specified part of speech and number of syllables that alliterates
+	 * with the given word, or null if there is none.
+	 */
+	public String randomAlliteration(PartOfSpeech pos, int syl, String word, Random random) 
+	{
+		List<String> words = alliteratingWords(pos, syl, word);
+		return words.isEmpty() ? null : words.get(random.nextInt(words.size()));
+	}
+	
+	/**
+	 * Returns the rhyme and alliteration index without excluded words, deriving it if the dictionary or
+	 * the exclusions have changed.
+	 */
+	private SoundIndex sounds() 
+	{
+		SoundIndex current = sounds;
+		if(current != null)
+			return current;
+		
+		synchronized(this) 
+		{
+			if(sounds == null) 
+			{
+				if(fullSounds == null) 
+				{
+					buildFullIndex();
+					fullSounds = new SoundIndex(fullIndex, fullIndexIds);
+				}
+				
+				sounds = fullSounds.exclude(exclusionMask());
+			}
+			
+			return sounds;
+		}
+	}
+	
+	/**
+	 * Words grouped by part of speech, then by syllable count, then by rhyme key or alliteration key.
+	 */
+	private static class SoundIndex 
+	{
+		final Map<PartOfSpeech, List<Map<String, Group>>> rhymes = 
+				new EnumMap<PartOfSpeech, List<Map<String, Group>>>(PartOfSpeech.class);
+		final Map<PartOfSpeech, List<Map<String, Group>>> onsets = 
+				new EnumMap<PartOfSpeech, List<Map<String, Group>>>(PartOfSpeech.class);
+		
+		private SoundIndex() {
+		}
+		
+		/**
+		 * Builds the sound index from the (part of speech x syllable count) index and the ids of its
+		 * words, so that syllables do not have to be counted again.
+		 */
+		SoundIndex(Map<PartOfSpeech, List<List<String>>> bySyllable, Map<PartOfSpeech, int[][]> ids) 
+		{
+			for(Entry<PartOfSpeech, List<List<String>>> entry : bySyllable.entrySet()) 
+			{
+				List<Map<String, Group>> rhymeBuckets = new ArrayList<Map<String, Group>>();
+				List<Map<String, Group>> onsetBuckets = new ArrayList<Map<String, Group>>();
+				int[][] idsBySyllable = ids.get(entry.getKey());
+				
+				for(int syl = 0; syl < entry.getValue().size(); syl++) 
+				{
+					List<String> words = entry.getValue().get(syl);
+					Map<String, Group> byRhyme = new HashMap<String, Group>();
+					Map<String, Group> byOnset = new HashMap<String, Group>();
+					
+					for(int i = 0; i < words.size(); i++) 
+					{
+						String word = words.get(i);
+						group(byRhyme, rhymeKey(word), word, idsBySyllable[syl][i]);
+						group(byOnset, alliterationKey(word), word, idsBySyllable[syl][i]);
+					}
+					
+					rhymeBuckets.add(byRhyme);
+					onsetBuckets.add(byOnset);
+				}
+				
+				rhymes.put(entry.getKey(), rhymeBuckets);
+				onsets.put(entry.getKey(), onsetBuckets);
+			}
+		}
+		
+		private static void group(Map<String, Group> groups, String key, String word, int id) 
+		{
+			Group group = groups.get(key);
+			if(group == null) 
+			{
+				group = new Group();
+				groups.put(key, group);
+			}
+			group.add(word, id);
+		}
+		
+		/**
+		 * Returns a copy of this index without the words whose ids are set in the mask, or this index 
+		 * itself if the mask is empty. This only tests a bit per word; no keys are computed.
+		 */
+		SoundIndex exclude(BitSet mask) 
+		{
+			if(mask.isEmpty())
+				return this;
+			
+			SoundIndex result = new SoundIndex();
+			exclude(rhymes, result.rhymes, mask);
+			exclude(onsets, result.onsets, mask);
+			return result;
+		}
+		
+		private static void exclude(Map<PartOfSpeech, List<Map<String, Group>>> from, 
+				Map<PartOfSpeech, List<Map<String, Group>>> to, BitSet mask) 
+		{
+			for(Entry<PartOfSpeech, List<Map<String, Group>>> entry : from.entrySet()) 
+			{
+				List<Map<String, Group>> buckets = new ArrayList<Map<String, Group>>(entry.getValue().size());
+				
+				for(Map<String, Group> groups : entry.getValue()) 
+				{
+					Map<String, Group> kept = new HashMap<String, Group>();
+					
+					for(Entry<String, Group> group : groups.entrySet()) 
+					{
+						Group remaining = group.getValue().exclude(mask);
+						if(remaining != null)
+							kept.put(group.getKey(), remaining);
+					}
+					
+					buckets.add(kept);
+				}
+				
+				to.put(entry.getKey(), buckets);
+			}
+		}
+		
+		List<String> lookup(Map<PartOfSpeech, List<Map<String, Group>>> sounds, PartOfSpeech pos, int syl, String key) 
+		{
+			List<Map<String, Group>> buckets = sounds.get(pos);
+			if(buckets == null || syl < 0 || syl >= buckets.size())
+				return Collections.emptyList();
+			
+			Group group = buckets.get(syl).get(key);
+			return (group == null) ? Collections.<String>emptyList() : Collections.unmodifiableList(group.words);
+		}
+	}
+	
+	/**
+	 * The words that share a sound key, and their ids.
+	 */
+	private static class Group 
+	{
+		final List<String> words = new ArrayList<String>(4);
+		private int[] ids = new int[4];
+		
+		void add(String word, int id) 
+		{
+			if(words.size() == ids.length)
+				ids = Arrays.copyOf(ids, ids.length * 2);
+			
+			ids[words.size()] = id;
+			words.add(word);
+		}
+		
+		/**
+		 * Returns a group without the words whose ids are set in the mask, this group if there are none,
+		 * or null if every word is excluded.
+		 */
+		Group exclude(BitSet mask) 
+		{
+			Group result = null;
+			
+			for(int i = 0; i < words.size(); i++) 
+				if(mask.get(ids[i])) 
+				{
+					if(result == null) 
+					{
+						result = new Group();
+						for(int j = 0; j < i; j++)
+							result.add(words.get(j), ids[j]);
+					}
+				}
+				else if(result != null)
+					result.add(words.get(i), ids[i]);
+			
+			if(result == null)
+				return this;
+			
+			return result.words.isEmpty() ? null : result;
+		}
+	}
+	
+	/**
+	 * Returns every word in this dictionary, in no particular order.
+	 */
+	Collection<String> words() {
+		return dictionary.keySet();
+	}
+	
+	/**
+	 * Returns every word in this dictionary in sorted order; a word's position in this array is its id.
+	 * The array is shared and must not be modified.
+	 */
+	String[] ids() 
+	{
+		String[] current = ids;
+		if(current != null)
+			return current;
+		
+		synchronized(this) 
+		{
+			if(ids == null) 
+			{
+				String[] sorted = words().toArray(new String[0]);
+				Arrays.sort(sorted);
+				ids = sorted;
+			}
+			return ids;
+		}
+	}
+	
+	/**
+	 * Discards the word index and ids, so that they are rebuilt to reflect a change in the dictionary.
+	 */
+	private synchronized void invalidate() 
+	{
+		index = null;
+		fullIndex = null;
+		fullIndexIds = null;
+		sounds = null;
+		fullSounds = null;
+		ids = null;
+	}
+	
+	/**
+	 * Returns the word with the same spelling from this dictionary's pool, adding it if it is new.
+	 */
+	private String intern(String word) {
+		return (pool == null) ? word : pool.intern(word);
+	}
+	
+	/**
+	 * Returns a dictionary containing only those words of this dictionary that are in the given collection
+	 * (with or without a trailing space).
+	 * 
+	 * The subset does not copy any words: it is stored as a bitmap over this dictionary's word ids, and
+	 * reflects this dictionary as it was when the subset was created.
+	 */
+	public Dictionary subset(Collection<String> words) 
+	{
+		String[] all = ids();
+		BitSet mask = new BitSet(all.length);
+		
+		for(String word : words) 
+			for(int id : idsOf(all, word)) 
+				if(id >= 0)
+					mask.set(id);
+		
+		return new DictionarySubset(this, all, mask);
+	}
+	
+	/**
+	 *  Returns the part of speech of the given word (with or without a trailing space, as in contains),
+	 *  or null if the dictionary does not contain it.
+	 */
+	public PartOfSpeech getPOS(String word) 
+	{
+		PartOfSpeech pos = dictionary.get(word);
+		if (pos != null || word == null)
+			return pos;
+		
+		String trimmed = word.trim();
+		pos = dictionary.get(trimmed);
+		return pos != null ? pos : dictionary.get(trimmed + " ");
 	}
 	
 	
@@ -242,12 +874,80 @@ public class Dictionary
 			 *  The number of vowels is decreased if the word ends in -ed,
 			 *  or -ly
 			 */
-			if(word.matches(".*[A-Z && [^AEIOUY]]ED?" + "LY?"))
+			if(SILENT_ENDING.matcher(word).matches())
 				vowels--;
 		
 		return vowels - diphCount(word);
 	}
 	
+	/**
+	 * Returns a key that is the same for words that (approximately) rhyme: the word's last vowel group
+	 * and every letter after it, e.g. "cat" and "hat" both give "AT". A silent final E belongs with the
+	 * vowel before it, so "make" and "take" give "AKE".
+	 * Returns "" if the input word is null.
+	 */
+	public static String rhymeKey(String word) 
+	{
+		if(word == null)
+			return "";
+		
+		word = word.trim().toUpperCase();
+		int end = word.length();
+		
+		// skip a silent final E, as in -AKE or -ONE
+		if(end > 2 && word.charAt(end - 1) == 'E' && !isVowel(word.charAt(end - 2))
+				&& vowelCount(word.substring(0, end - 2)) > 0)
+			end -= 2;
+		
+		int start = end - 1;
+		while(start >= 0 && !isVowel(word.charAt(start)))
+			start--;
+		
+		if(start < 0)
+			return word;
+		
+		while(start > 0 && isVowel(word.charAt(start - 1)))
+			start--;
+		
+		// the U in QU is part of the consonant, as in QUEEN
+		if(start > 0 && word.charAt(start - 1) == 'Q' && word.charAt(start) == 'U' && start + 1 < end)
+			start++;
+		
+		return word.substring(start);
+	}
+	
+	/**
+	 * Returns a key that is the same for words that (approximately) alliterate: the sound that begins
+	 * the word, so that "phone" and "fish" both give "F", and "city" gives "S" while "cat" gives "K".
+	 * Returns "" if the input word is null or empty.
+	 */
+	public static String alliterationKey(String word) 
+	{
+		if(word == null)
+			return "";
+		
+		word = word.trim().toUpperCase();
+		if(word.length() == 0)
+			return "";
+		
+		if(word.startsWith("PH"))	return "F";
+		if(word.startsWith("KN"))	return "N";
+		if(word.startsWith("GN"))	return "N";
+		if(word.startsWith("WR"))	return "R";
+		if(word.startsWith("PS"))	return "S";
+		
+		char first = word.charAt(0);
+		if(first == 'C') 
+		{
+			char next = (word.length() > 1) ? word.charAt(1) : ' ';
+			return (next == 'E' || next == 'I' || next == 'Y') ? "S" : "K";
+		}
+		if(first == 'Q')
+			return "K";
+		
+		return String.valueOf(first);
+	}
+	
 	/**
 	 * Counts the number of diphthongs (one-syllable vowel pairs) in a word.
 	 */
@@ -259,12 +959,9 @@ public class Dictionary
 		word = word.toUpperCase();
 		
 		int count = 0;
-		if(word.matches(".*A[EIUY].*")) 	count++;
-		if(word.matches(".*E[AEIUY].*")) 	count++;
-		if(word.matches(".*I[AEOU].*")) 	count++;
-		if(word.matches(".*O[AIOUY].*")) 	count++;
-		if(word.matches(".*U[AEIUY].*")) 	count++;
-		if(word.matches(".*[A-Z&&[^AEIOU]]Y[AEIOU].*")) count++;
+		for(Pattern diphthong : DIPHTHONGS)
+			if(diphthong.matcher(word).matches())
+				count++;
 		
 		return count;
 	}
@@ -334,10 +1031,15 @@ public class Dictionary
 	
 	
 	/**
-	 * Returns true if this dictionary contains the specified word.
+	 * Returns true if this dictionary contains the specified word (with or without a trailing space).
 	 */
-	public boolean contains(String word) {
-		return dictionary.containsValue(word);
+	public boolean contains(String word) 
+	{
+		if (word == null)
+			return false;
+		
+		String trimmed = word.trim();
+		return dictionary.containsKey(trimmed) || dictionary.containsKey(trimmed + " ");
 	}
 	
 	
@@ -375,7 +1077,8 @@ public class Dictionary
 		if (pos == PartOfSpeech.BLANK)
 			return false;
 
-		dictionary.put(word, pos);
+		dictionary.put(intern(word), pos);
+		invalidate();
 		return true;
 	}
 }
@@ -0,0 +1,226 @@
+package haiku;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Opens dictionary text files for streaming import and export.
+ *
+ * Files ending in ".txt" are plain text; files ending in ".txt.gz" are gzip-compressed text.
+ * All streams are buffered in large blocks, and reading is pipelined: a background thread
+ * decompresses and splits the file into batches of lines while the caller parses earlier batches.
+ */
+public class DictionaryFiles
+{
+	//-- size of the read and write buffers, in bytes
+	public static final int BUFFER_SIZE = 1 << 16;
+
+	//-- number of lines handed from the reading thread to the parsing thread at a time
+	private static final int BATCH_SIZE = 1024;
+
+	//-- number of batches that may be waiting to be parsed; bounds the memory used by a pipelined read
+	private static final int QUEUE_BATCHES = 16;
+
+
+	private DictionaryFiles() {}
+
+
+	/**
+	 * Returns true if the filename has an extension that a dictionary can be loaded from or saved to.
+	 */
+	public static boolean isDictionaryFile(String filename)
+	{
+		if (filename == null)
+			return false;
+
+		String name = filename.toUpperCase();
+		return name.endsWith(".TXT") || name.endsWith(".TXT.GZ");
+	}
+
+
+	private static boolean isCompressed(String filename) {
+		return filename.toUpperCase().endsWith(".GZ");
+	}
+
+
+	/**
+	 * Opens a dictionary file for reading, decompressing it if necessary.
+	 */
+	public static Reader openReader(String filename) throws IOException
+	{
+		InputStream in = new BufferedInputStream(new FileInputStream(filename), BUFFER_SIZE);
+
+		if (isCompressed(filename))
+			in = new GZIPInputStream(in, BUFFER_SIZE);
+
+		return new InputStreamReader(in);
+	}
+
+
+	/**
+	 * Opens a dictionary file for writing, compressing it if necessary.
+	 */
+	public static BufferedWriter openWriter(String filename) throws IOException
+	{
+		OutputStream out = new FileOutputStream(filename);
+
+		if (isCompressed(filename))
+			out = new GZIPOutputStream(out, BUFFER_SIZE);
+		else
+			out = new BufferedOutputStream(out, BUFFER_SIZE);
+
+		Writer writer = new OutputStreamWriter(out);
+		return new BufferedWriter(writer, BUFFER_SIZE);
+	}
+
+
+	/**
+	 * Opens a dictionary file for pipelined, line-by-line reading.
+	 */
+	public static LineReader openLines(String filename) throws IOException {
+		return new LineReader(openReader(filename));
+	}
+
+
+
+	/************************************\
+	 *         PIPELINED LINE READER
+	 *
+	\************************************/
+
+	/**
+	 * Reads lines of text that are read (and decompressed) ahead of time by a background thread.
+	 * At most QUEUE_BATCHES * BATCH_SIZE lines are held in memory at once, however large the file.
+	 */
+	public static class LineReader implements Closeable
+	{
+		//-- marks the end of the file in the queue
+		private static final String[] END = new String[0];
+
+		private final BlockingQueue<String[]> queue = new ArrayBlockingQueue<String[]>(QUEUE_BATCHES);
+		private final Thread producer;
+
+		//-- an exception thrown while reading, to be re-thrown to the caller
+		private volatile IOException failure;
+		private volatile boolean closed;
+
+		private String[] batch = new String[0];
+		private int position;
+		private boolean finished;
+
+
+		LineReader(final Reader source)
+		{
+			producer = new Thread("dictionary-reader")
+			{
+				@Override
+				public void run() {
+					produce(new BufferedReader(source, BUFFER_SIZE));
+				}
+			};
+			producer.setDaemon(true);
+			producer.start();
+		}
+
+
+		private void produce(BufferedReader in)
+		{
+			try {
+				String[] lines = new String[BATCH_SIZE];
+				int count = 0;
+				String line;
+
+				while (!closed && (line = in.readLine()) != null)
+				{
+					lines[count++] = line;
+
+					if (count == BATCH_SIZE)
+					{
+						queue.put(lines);
+						lines = new String[BATCH_SIZE];
+						count = 0;
+					}
+				}
+
+				if (count > 0)
+					queue.put(Arrays.copyOf(lines, count));
+
+			} catch (IOException exception) {
+				failure = exception;
+			} catch (InterruptedException exception) {
+				// closed while waiting for the parser
+			} finally {
+				try {
+					in.close();
+				} catch (IOException ignored) {}
+
+				if (!closed)
+				{
+					try {
+						queue.put(END);
+					} catch (InterruptedException ignored) {}
+				}
+			}
+		}
+
+
+		/**
+		 * Returns the next line of the file, or null at the end of the file.
+		 *
+		 * @throws IOException if reading or decompressing the file failed
+		 */
+		public String readLine() throws IOException
+		{
+			while (position == batch.length)
+			{
+				if (finished)
+					return null;
+
+				try {
+					batch = queue.take();
+				} catch (InterruptedException exception) {
+					Thread.currentThread().interrupt();
+					throw new IOException("interrupted while reading dictionary", exception);
+				}
+				position = 0;
+
+				if (batch == END)
+				{
+					finished = true;
+					if (failure != null)
+						throw failure;
+				}
+			}
+
+			return batch[position++];
+		}
+
+
+		/**
+		 * Stops the background thread and releases the file.
+		 */
+		public void close()
+		{
+			closed = true;
+			producer.interrupt();
+			queue.clear();
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package haiku;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A set of named dictionaries that are loaded side by side.
+ *
+ * Every dictionary loaded through a registry interns its words in the registry's WordPool, so words
+ * shared between dictionaries are stored once. Subset dictionaries are stored as bitmaps over their
+ * parent (see DictionarySubset), so they cost no extra word storage at all.
+ *
+ * Only the strings are shared, though: each loaded dictionary still has its own map entry, sorted id
+ * array slot, and index entries for every word it holds, so memory grows linearly with the number of
+ * loaded (not subset) dictionaries. Register dictionaries that overlap heavily as subsets of one parent.
+ */
+public class DictionaryRegistry
+{
+	private final WordPool pool = new WordPool();
+
+	private final ConcurrentHashMap<String, Dictionary> dictionaries = new ConcurrentHashMap<String, Dictionary>();
+
+	//-- words excluded from every registered dictionary
+	private volatile Collection<String> exclusions = Collections.emptyList();
+
+
+
+	/**
+	 * Loads a dictionary text file and registers it under the given name, replacing any dictionary
+	 * previously registered under that name.
+	 *
+	 * @throws IOException if the file cannot be read, or is not a dictionary text file
+	 */
+	public Dictionary load(String name, String filename) throws IOException
+	{
+		Dictionary dictionary = new Dictionary(pool);
+
+		if (!dictionary.load(filename))
+			throw new IOException("Not a dictionary text file: " + filename);
+
+		put(name, dictionary);
+		return dictionary;
+	}
+
+
+	/**
+	 * Registers a subset of an already registered dictionary under a new name.
+	 *
+	 * @param name the name of the new subset
+	 * @param parentName the name of the dictionary to take words from
+	 * @param words the words to keep; words not in the parent are ignored
+	 * @return the subset, or null if no dictionary is registered under parentName
+	 */
+	public Dictionary subset(String name, String parentName, Collection<String> words)
+	{
+		Dictionary parent = dictionaries.get(parentName);
+		if (parent == null)
+			return null;
+
+		Dictionary subset = parent.subset(words);
+		put(name, subset);
+		return subset;
+	}
+
+
+	/**
+	 * Registers an existing dictionary under the given name, applying the registry's exclusions to it.
+	 */
+	public void register(String name, Dictionary dictionary) {
+		put(name, dictionary);
+	}
+
+
+	/**
+	 * Replaces the words excluded from every registered dictionary, and from dictionaries registered later
+	 * (see Dictionary.setExclusions). This takes effect at once, without reloading any dictionary.
+	 * An empty collection clears the exclusions of every registered dictionary.
+	 *
+	 * This is mutually exclusive with registering a dictionary, so a dictionary registered concurrently
+	 * ends up with either the new exclusions or the old ones followed by the new.
+	 */
+	public synchronized void setExclusions(Collection<String> words)
+	{
+		exclusions = Collections.unmodifiableList(new ArrayList<String>(words));
+
+		for (Dictionary dictionary : dictionaries.values())
+			dictionary.setExclusions(exclusions);
+	}
+
+
+	/**
+	 * Applies the registry's exclusions, if there are any, to a newly registered dictionary and registers
+	 * it; under the same lock as setExclusions, so that it cannot miss a change made in between.
+	 */
+	private synchronized void put(String name, Dictionary dictionary)
+	{
+		if (!exclusions.isEmpty())
+			dictionary.setExclusions(exclusions);
+
+		dictionaries.put(name, dictionary);
+	}
+
+
+	/**
+	 * Returns the dictionary registered under the given name, or null if there is none.
+	 */
+	public Dictionary get(String name) {
+		return dictionaries.get(name);
+	}
+
+
+	/**
+	 * Unregisters and returns the dictionary with the given name, or null if there was none.
+	 * Its words are released from the pool once no other dictionary (or caller) holds them.
+	 */
+	public Dictionary remove(String name) {
+		return dictionaries.remove(name);
+	}
+
+
+	/**
+	 * Returns the names of all registered dictionaries.
+	 */
+	public Set<String> names() {
+		return Collections.unmodifiableSet(dictionaries.keySet());
+	}
+
+
+	/**
+	 * Returns the pool that words of dictionaries loaded by this registry are interned in.
+	 */
+	public WordPool getPool() {
+		return pool;
+	}
+}
@@ -0,0 +1,147 @@
+package haiku;
+
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * A read-only dictionary that holds a subset of the words of a parent dictionary.
+ *
+ * Instead of copying its words, a subset stores a bitmap over the parent's word ids (the positions of
+ * the words in the parent's sorted word array), so that its memory grows with the size of the parent
+ * dictionary in bits, not with the number of words it contains.
+ */
+public class DictionarySubset extends Dictionary
+{
+	//-- the dictionary this is a subset of
+	private final Dictionary parent;
+
+	//-- the parent's sorted words, as they were when this subset was created
+	private final String[] ids;
+
+	//-- the ids of the words in this subset
+	private final BitSet mask;
+
+	private final int size;
+
+
+
+	/**
+	 * Creates a subset of the given dictionary, containing the words whose ids are set in the mask.
+	 */
+	DictionarySubset(Dictionary parent, String[] ids, BitSet mask)
+	{
+		this.parent = parent;
+		this.ids = ids;
+		this.mask = mask;
+		this.size = mask.cardinality();
+	}
+
+
+	/**
+	 * Returns the dictionary that this is a subset of.
+	 */
+	public Dictionary getParent() {
+		return parent;
+	}
+
+
+	/**
+	 * Subsets of a subset share the same parent; their bitmap is the intersection of both.
+	 */
+	@Override
+	public Dictionary subset(Collection<String> words)
+	{
+		BitSet subMask = new BitSet(ids.length);
+
+		for (String word : words)
+			for (int id : idsOf(ids, word))
+				if (id >= 0 && mask.get(id))
+					subMask.set(id);
+
+		return new DictionarySubset(parent, ids, subMask);
+	}
+
+
+
+	/**********************************************************\
+	 *	Subsets cannot be modified; loading or adding words always fails.
+	 *	(Saving is inherited, and writes only the words in the subset.)
+	 *
+	\**********************************************************/
+
+	@Override
+	public boolean load(String filename) {
+		return false;
+	}
+
+
+	@Override
+	public boolean add(String word, PartOfSpeech pos) {
+		return false;
+	}
+
+
+
+	/**********************************************************\
+	 *	Word lookups are answered from the parent, filtered by the bitmap.
+	 *
+	\**********************************************************/
+
+	@Override
+	Collection<String> words()
+	{
+		return new AbstractList<String>()
+		{
+			private final int[] members = mask.stream().toArray();
+
+			@Override
+			public String get(int i) {
+				return ids[members[i]];
+			}
+
+			@Override
+			public int size() {
+				return members.length;
+			}
+		};
+	}
+
+
+	@Override
+	public PartOfSpeech getPOS(String word) {
+		return contains(word) ? parent.getPOS(word) : null;
+	}
+
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+
+	@Override
+	public boolean contains(String word)
+	{
+		if (word == null)
+			return false;
+
+		for (int id : idsOf(ids, word))
+			if (id >= 0 && mask.get(id))
+				return true;
+
+		return false;
+	}
+
+
+	@Override
+	public String[] toArray() {
+		return words().toArray(new String[size]);
+	}
+}
@@ -0,0 +1,256 @@
+package haiku;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Scanner;
+
+/**
+ * Learns which edges of the sentence graph tend to lead into dead ends, and lowers their effective weight.
+ *
+ * Every edge traversal made while building a line is recorded, together with the number of syllables
+ * that were left in the line at that point, and whether the rest of the line could be completed. The
+ * effective weight of an edge in that context is then its stored weight multiplied by a factor between
+ * minFactor and maxFactor that falls as the edge's observed dead-end rate rises.
+ *
+ * Statistics are first gathered per thread, without any locking, and merged into the shared factors
+ * every mergeInterval records. Learned statistics can be saved to a text file and loaded at startup.
+ */
+public class EdgeLearner
+{
+	//-- contexts are distinguished up to this many remaining syllables
+	public static final int MAX_SYLLABLES = 7;
+
+	//-- number of pseudo-successes assumed for every context, so that a few dead ends don't lock an edge out
+	private static final double PRIOR = 4.0;
+
+	private final int vertices;
+	private final double minFactor;
+	private final double maxFactor;
+	private final int mergeInterval;
+
+	//-- merged statistics, indexed by context(); guarded by this
+	private final long[] attempts;
+	private final long[] failures;
+
+	//-- the published weight factors, replaced as a whole after every merge
+	private volatile double[] factors;
+
+	private final ThreadLocal<long[][]> local = new ThreadLocal<long[][]>()
+	{
+		@Override
+		protected long[][] initialValue() {
+			return new long[][] { new long[attempts.length], new long[attempts.length], new long[1] };
+		}
+	};
+
+
+
+	/************************************\
+	 *         CONSTRUCTORS
+	 *
+	\************************************/
+
+	/**
+	 * Creates a learner with default bounds: factors between 0.25 and 1.0, merged every 256 records.
+	 */
+	public EdgeLearner(int vertices) {
+		this(vertices, 0.25, 1.0, 256);
+	}
+
+
+	/**
+	 * @param vertices the number of vertices in the sentence graph
+	 * @param minFactor the smallest factor an edge weight can be multiplied by
+	 * @param maxFactor the largest factor an edge weight can be multiplied by
+	 * @param mergeInterval the number of records a thread gathers before merging them
+	 */
+	public EdgeLearner(int vertices, double minFactor, double maxFactor, int mergeInterval)
+	{
+		if (minFactor <= 0.0 || maxFactor < minFactor || mergeInterval < 1)
+			throw new IllegalArgumentException("require 0 < minFactor <= maxFactor, and a positive mergeInterval");
+
+		this.vertices = vertices;
+		this.minFactor = minFactor;
+		this.maxFactor = maxFactor;
+		this.mergeInterval = mergeInterval;
+
+		int contexts = vertices * vertices * (MAX_SYLLABLES + 1);
+		attempts = new long[contexts];
+		failures = new long[contexts];
+		factors = computeFactors();
+	}
+
+
+
+	/************************************\
+	 *         LEARNING
+	 *
+	\************************************/
+
+	/**
+	 * Records the outcome of following an edge.
+	 *
+	 * @param from the vertex the edge leaves
+	 * @param to the vertex the edge leads to
+	 * @param syllablesLeft the number of syllables left in the line when the edge was followed
+	 * @param deadEnd true if the line could not be completed after following the edge
+	 */
+	public void record(int from, int to, int syllablesLeft, boolean deadEnd)
+	{
+		if (!inGraph(from, to))
+			return;
+
+		long[][] stats = local.get();
+		int context = context(from, to, syllablesLeft);
+
+		stats[0][context]++;
+		if (deadEnd)
+			stats[1][context]++;
+
+		if (++stats[2][0] >= mergeInterval)
+			merge(stats);
+	}
+
+
+	/**
+	 * Merges the calling thread's statistics into the shared factors right away.
+	 */
+	public void flush() {
+		merge(local.get());
+	}
+
+
+	/**
+	 * Returns the factor that the weight of an edge is multiplied by, in the given context.
+	 */
+	public double factor(int from, int to, int syllablesLeft)
+	{
+		if (!inGraph(from, to))
+			return maxFactor;
+
+		return factors[context(from, to, syllablesLeft)];
+	}
+
+
+	private synchronized void merge(long[][] stats)
+	{
+		for (int i = 0; i < attempts.length; i++)
+		{
+			attempts[i] += stats[0][i];
+			failures[i] += stats[1][i];
+			stats[0][i] = 0;
+			stats[1][i] = 0;
+		}
+		stats[2][0] = 0;
+
+		factors = computeFactors();
+	}
+
+
+	/**
+	 * Computes each context's factor from its (smoothed) success rate, scaled into [minFactor, maxFactor].
+	 * Contexts without any records get maxFactor.
+	 */
+	private double[] computeFactors()
+	{
+		double[] result = new double[attempts.length];
+
+		for (int i = 0; i < result.length; i++)
+		{
+			double successRate = (attempts[i] - failures[i] + PRIOR) / (attempts[i] + PRIOR);
+			result[i] = minFactor + (maxFactor - minFactor) * successRate;
+		}
+
+		return result;
+	}
+
+
+	private boolean inGraph(int from, int to) {
+		return from >= 0 && from < vertices && to >= 0 && to < vertices;
+	}
+
+
+	private int context(int from, int to, int syllablesLeft)
+	{
+		int syl = Math.max(0, Math.min(syllablesLeft, MAX_SYLLABLES));
+		return (from * vertices + to) * (MAX_SYLLABLES + 1) + syl;
+	}
+
+
+
+	/************************************\
+	 *         SAVING AND LOADING
+	 *
+	\************************************/
+
+	/**
+	 * Saves the merged statistics to a text file, one "from to syllables attempts failures" line per
+	 * context that has been recorded.
+	 *
+	 * @return true if the statistics were saved successfully
+	 */
+	public synchronized boolean save(String filename)
+	{
+		try {
+			BufferedWriter outFile = new BufferedWriter(new FileWriter(filename));
+			try {
+				for (int i = 0; i < attempts.length; i++)
+				{
+					if (attempts[i] == 0)
+						continue;
+
+					int syl = i % (MAX_SYLLABLES + 1);
+					int edge = i / (MAX_SYLLABLES + 1);
+
+					outFile.write((edge / vertices) + " " + (edge % vertices) + " " + syl + " "
+							+ attempts[i] + " " + failures[i]);
+					outFile.newLine();
+				}
+			}
+			finally {
+				outFile.close();
+			}
+			return true;
+
+		} catch (IOException exception) {
+			exception.printStackTrace();
+			return false;
+		}
+	}
+
+
+	/**
+	 * Adds the statistics stored in a text file (written by save) to this learner's statistics.
+	 *
+	 * @throws IOException if the file cannot be read
+	 */
+	public synchronized void load(String filename) throws IOException
+	{
+		Scanner inFile = new Scanner(new File(filename));
+
+		try {
+			while (inFile.hasNextInt())
+			{
+				int from = inFile.nextInt();
+				int to = inFile.nextInt();
+				int syl = inFile.nextInt();
+				long seen = inFile.nextLong();
+				long failed = inFile.nextLong();
+
+				if (!inGraph(from, to) || failed > seen)
+					continue;
+
+				int context = context(from, to, syl);
+				attempts[context] += seen;
+				failures[context] += failed;
+			}
+		}
+		finally {
+			inFile.close();
+		}
+
+		factors = computeFactors();
+	}
+}
@@ -0,0 +1,486 @@
+package haiku;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates a large batch of haikus across several local worker JVMs.
+ *
+ * The coordinator launches one HaikuWorker process per worker, each with its own heap, and connects to
+ * each over a loopback socket. The run is split into fixed-size batches of haiku positions, which are
+ * handed to whichever worker is free; haiku number (i) is always generated from seedFor(seed, i), so
+ * the merged output is identical to a single-process run with the same seed, however the batches were
+ * distributed. If a worker fails, its batch is retried on a restarted worker.
+ *
+ * Finished batches are held until every batch before them has been written. So that a slow batch
+ * cannot make the others pile up in memory, a batch is only handed out while it is within a window of
+ * REORDER_WINDOW_PER_WORKER batches per worker past the next batch to write.
+ *
+ * Usage: java haiku.HaikuCoordinator (count) (workers) [seed] [dictionary file] [output file]
+ * With 0 workers, the haikus are generated in this process.
+ */
+public class HaikuCoordinator
+{
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	//-- number of times a single batch may be attempted before the run fails
+	public static final int MAX_ATTEMPTS = 3;
+
+	//-- how long to wait for a launched worker to load its dictionary and connect
+	private static final int CONNECT_TIMEOUT_MILLIS = 120000;
+
+	//-- how long to wait for a batch's haikus: a fixed allowance plus one per haiku (a haiku takes well
+	//   under a millisecond), after which the worker is taken to be hung, destroyed, and the batch retried
+	private static final int READ_TIMEOUT_MILLIS = 10000;
+	private static final int READ_TIMEOUT_PER_HAIKU_MILLIS = 50;
+
+	//-- how many batches per worker may be handed out past the next batch to write
+	private static final int REORDER_WINDOW_PER_WORKER = 2;
+
+	private final String dictionaryFile;
+	private final int workers;
+	private final int batchSize;
+	private final boolean templates;
+
+	//-- state of the current run; pending batches are ordered by index, so a retried batch goes first
+	private PriorityQueue<Batch> pending;
+	private Map<Long, String[]> finished;
+	private long nextToWrite;
+	private long batchCount;
+	private Writer output;
+	private volatile IOException failure;
+
+
+
+	/************************************\
+	 *         CONSTRUCTOR AND MAIN
+	 *
+	\************************************/
+
+	/**
+	 * @param dictionaryFile the dictionary text file every worker loads
+	 * @param workers the number of worker processes, or 0 to generate in this process
+	 * @param batchSize the number of haikus handed to a worker at a time
+	 * @param templates whether the workers generate from precomputed line templates
+	 */
+	public HaikuCoordinator(String dictionaryFile, int workers, int batchSize, boolean templates)
+	{
+		if (workers < 0 || batchSize < 1)
+			throw new IllegalArgumentException("workers must not be negative, and batchSize must be positive");
+
+		this.dictionaryFile = dictionaryFile;
+		this.workers = workers;
+		this.batchSize = batchSize;
+		this.templates = templates;
+	}
+
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 2)
+		{
+			System.err.println("usage: HaikuCoordinator <count> <workers> [seed] [dictionary file] [output file]");
+			System.exit(2);
+		}
+
+		long count = Long.parseLong(args[0]);
+		int workers = Integer.parseInt(args[1]);
+		long seed = (args.length > 2) ? Long.parseLong(args[2]) : System.nanoTime();
+		String dictionary = (args.length > 3) ? args[3] : "dictionary.txt";
+
+		Writer out = (args.length > 4)
+				? new BufferedWriter(new FileWriter(args[4]), DictionaryFiles.BUFFER_SIZE)
+				: new BufferedWriter(new OutputStreamWriter(System.out), DictionaryFiles.BUFFER_SIZE);
+
+		//-- in-process generation prints traces to System.out, which may also be the output
+		PrintStream console = System.out;
+		if (workers == 0)
+			System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+		long startTime = System.nanoTime();
+		new HaikuCoordinator(dictionary, workers, DEFAULT_BATCH_SIZE, false).run(count, seed, out);
+		out.close();
+
+		System.setOut(console);
+		System.err.println("Generated " + count + " haikus with seed " + seed + " in "
+				+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) + " ms");
+	}
+
+
+	/**
+	 * Returns the seed that haiku number (index) of a run with the given seed is generated from.
+	 * This is a SplitMix64 step, so that neighbouring haikus get unrelated seeds.
+	 */
+	public static long seedFor(long seed, long index)
+	{
+		long z = seed + (index + 1) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+
+
+	/************************************\
+	 *         RUNNING A BATCH
+	 *
+	\************************************/
+
+	/**
+	 * Generates (count) haikus from the given seed, writing them to the output in order,
+	 * each followed by a blank line.
+	 *
+	 * @throws IOException if the output cannot be written, or a batch failed on every attempt
+	 */
+	public void run(long count, long seed, Writer out) throws IOException
+	{
+		if (workers == 0)
+		{
+			runLocally(count, seed, out);
+			return;
+		}
+
+		pending = new PriorityQueue<Batch>();
+		finished = new HashMap<Long, String[]>();
+		nextToWrite = 0;
+		output = out;
+		failure = null;
+
+		batchCount = (count + batchSize - 1) / batchSize;
+		for (long b = 0; b < batchCount; b++)
+			pending.add(new Batch(b, b * batchSize, (int) Math.min(batchSize, count - b * batchSize), seed));
+
+		List<Thread> slots = new ArrayList<Thread>();
+		for (int w = 0; w < workers; w++)
+		{
+			final int id = w;
+			Thread slot = new Thread("haiku-worker-" + w)
+			{
+				@Override
+				public void run() {
+					serveWorker(id);
+				}
+			};
+			slots.add(slot);
+			slot.start();
+		}
+
+		for (Thread slot : slots)
+		{
+			try {
+				slot.join();
+			} catch (InterruptedException exception) {
+				Thread.currentThread().interrupt();
+				throw new IOException("interrupted while waiting for workers", exception);
+			}
+		}
+
+		if (failure != null)
+			throw failure;
+
+		out.flush();
+	}
+
+
+	/**
+	 * Generates every haiku in this process; the reference that worker runs must match.
+	 */
+	private void runLocally(long count, long seed, Writer out) throws IOException
+	{
+		HaikuGenerator generator = new HaikuGenerator();
+		generator.loadDictionary(HaikuGenerator.DEFAULT_DICTIONARY, dictionaryFile);
+		generator.setTemplates(templates);
+
+		for (long i = 0; i < count; i++)
+			writeHaiku(out, generator.generate(seedFor(seed, i)));
+
+		out.flush();
+	}
+
+
+	/**
+	 * Runs one worker process, feeding it batches until none are left. A worker that fails is
+	 * restarted, and the batch it was working on is put back for any worker to retry.
+	 */
+	private void serveWorker(int id)
+	{
+		WorkerProcess worker = null;
+
+		try {
+			while (failure == null)
+			{
+				Batch batch = nextBatch();
+				if (batch == null)
+				{
+					if (isComplete())
+						break;
+					continue;
+				}
+
+				try {
+					if (worker == null)
+						worker = new WorkerProcess(id);
+
+					complete(batch, worker.generate(batch));
+				}
+				catch (IOException exception) {
+					System.err.println("Worker " + id + " failed on haikus " + batch.first + "-"
+							+ (batch.first + batch.count - 1) + ": " + exception.getMessage());
+
+					if (worker != null)
+						worker.destroy();
+					worker = null;
+
+					if (++batch.attempts >= MAX_ATTEMPTS)
+						fail(new IOException("batch starting at haiku " + batch.first + " failed "
+								+ MAX_ATTEMPTS + " times", exception));
+					else
+						retry(batch);
+				}
+			}
+		}
+		catch (InterruptedException exception) {
+			fail(new IOException("interrupted while generating", exception));
+		}
+		finally {
+			if (worker != null)
+				worker.close();
+		}
+	}
+
+
+	/**
+	 * Returns the pending batch with the lowest index, if it is within the reorder window; otherwise
+	 * waits up to 100 ms for one (for a failed batch to be put back, or the window to move on), and 
+	 * returns null if there is still none.
+	 * 
+	 * The batch at nextToWrite is always either pending, and so first, or being worked on, so the 
+	 * window never stops every worker at once.
+	 */
+	private synchronized Batch nextBatch() throws InterruptedException
+	{
+		if (!isHandable(pending.peek()))
+		{
+			wait(100);
+			if (!isHandable(pending.peek()))
+				return null;
+		}
+
+		return pending.poll();
+	}
+
+
+	private boolean isHandable(Batch batch) {
+		return batch != null && batch.index < nextToWrite + (long) REORDER_WINDOW_PER_WORKER * workers;
+	}
+
+
+	/**
+	 * Puts a failed batch back, for any worker to retry.
+	 */
+	private synchronized void retry(Batch batch)
+	{
+		pending.add(batch);
+		notifyAll();
+	}
+
+
+	/**
+	 * Stores a finished batch, and writes out every batch that is now next in order.
+	 */
+	private synchronized void complete(Batch batch, String[] haikus)
+	{
+		finished.put(batch.index, haikus);
+
+		try {
+			String[] next;
+			while ((next = finished.remove(nextToWrite)) != null)
+			{
+				for (String haiku : next)
+					writeHaiku(output, haiku);
+				nextToWrite++;
+			}
+		} catch (IOException exception) {
+			fail(exception);
+		}
+
+		notifyAll();
+	}
+
+
+	private synchronized boolean isComplete() {
+		return nextToWrite == batchCount;
+	}
+
+
+	private synchronized void fail(IOException exception)
+	{
+		if (failure == null)
+			failure = exception;
+	}
+
+
+	private static void writeHaiku(Writer out, String haiku) throws IOException
+	{
+		out.write(haiku);
+		out.write('\n');
+	}
+
+
+
+	/************************************\
+	 *         WORKERS AND BATCHES
+	 *
+	\************************************/
+
+	/**
+	 * A range of haiku positions to generate.
+	 */
+	private static class Batch implements Comparable<Batch>
+	{
+		final long index;
+		final long first;
+		final int count;
+		final long seed;
+		int attempts;
+
+		Batch(long index, long first, int count, long seed)
+		{
+			this.index = index;
+			this.first = first;
+			this.count = count;
+			this.seed = seed;
+		}
+
+		@Override
+		public int compareTo(Batch other) {
+			return Long.compare(index, other.index);
+		}
+	}
+
+
+	/**
+	 * A launched HaikuWorker JVM, and the socket connected to it.
+	 */
+	private class WorkerProcess
+	{
+		private final Process process;
+		private final Socket socket;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+
+
+		WorkerProcess(int id) throws IOException
+		{
+			ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+
+			try {
+				List<String> command = new ArrayList<String>();
+				command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+				command.add("-cp");
+				command.add(System.getProperty("java.class.path"));
+				command.add(HaikuWorker.class.getName());
+				command.add(String.valueOf(server.getLocalPort()));
+				command.add(dictionaryFile);
+				if (templates)
+					command.add("templates");
+
+				process = new ProcessBuilder(command)
+						.redirectOutput(ProcessBuilder.Redirect.DISCARD)
+						.redirectError(ProcessBuilder.Redirect.INHERIT)
+						.start();
+
+				server.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+				try {
+					socket = server.accept();
+				} catch (IOException exception) {
+					process.destroyForcibly();
+					throw exception;
+				}
+			}
+			finally {
+				server.close();
+			}
+
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+
+
+		/**
+		 * Sends a batch to the worker and waits for all of its haikus.
+		 *
+		 * @throws java.net.SocketTimeoutException if the worker sends nothing for longer than the batch's read timeout
+		 */
+		String[] generate(Batch batch) throws IOException
+		{
+			socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE,
+					READ_TIMEOUT_MILLIS + (long) READ_TIMEOUT_PER_HAIKU_MILLIS * batch.count));
+
+			out.writeLong(batch.first);
+			out.writeInt(batch.count);
+			out.writeLong(batch.seed);
+			out.flush();
+
+			String[] haikus = new String[batch.count];
+			for (int i = 0; i < haikus.length; i++)
+				haikus[i] = in.readUTF();
+
+			return haikus;
+		}
+
+
+		/**
+		 * Asks the worker to exit, and waits for it to do so.
+		 */
+		void close()
+		{
+			try {
+				out.writeLong(0);
+				out.writeInt(-1);
+				out.writeLong(0);
+				out.flush();
+				socket.close();
+
+				if (!process.waitFor(10, TimeUnit.SECONDS))
+					process.destroyForcibly();
+			}
+			catch (IOException exception) {
+				destroy();
+			}
+			catch (InterruptedException exception) {
+				destroy();
+				Thread.currentThread().interrupt();
+			}
+		}
+
+
+		void destroy()
+		{
+			try {
+				socket.close();
+			} catch (IOException ignored) {}
+
+			process.destroyForcibly();
+		}
+	}
+}
@@ -0,0 +1,1017 @@
+package haiku;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Generates haikus by arranging dictionary words according to part of speech and syllabic order,
+ * following the sentence structure stored in a SentenceGraph.
+ * 
+ * This class holds all generation state and has no user interface, so it can be used on its own
+ * (by the Haiku window, or by a headless worker process). A generator is not thread-safe; use one
+ * per thread.
+ */
+public class HaikuGenerator 
+{
+     // =========================== INTERNAL COMPONENTS =========================== \\
+
+		//name of the dictionary loaded from "dictionary.txt" at startup
+		public static final String DEFAULT_DICTIONARY = "default";
+		
+		//source of all random choices; reseeded by generate(seed)
+		private final Random random = new Random();
+		
+		//stores desired sentence structure
+		private final SentenceGraph graph = new SentenceGraph(random);
+		
+		//all loaded dictionaries, by name
+		private final DictionaryRegistry dictionaries;
+	
+		//stores information about loaded words (the dictionary currently in use)
+		private Dictionary dictionary;
+		
+		//optional cache of completed line skeletons (null when disabled)
+		private LineCache lineCache;
+		
+		//optional table of precomputed line templates for the current dictionary (null when disabled)
+		private LineTemplates templates;
+		
+		//the number of templates sampled for a line before falling back to the cache or the search
+		private static final int TEMPLATE_ATTEMPTS = 4;
+		
+		//line templates of every dictionary used so far, while templates are enabled
+		private final Map<Dictionary, LineTemplates> templatesByDictionary = new IdentityHashMap<Dictionary, LineTemplates>();
+		
+		//per-thread buffer that each haiku is assembled in
+		private static final ThreadLocal<StringBuilder> OUTPUT_BUFFER = new ThreadLocal<StringBuilder>() {
+			@Override
+			protected StringBuilder initialValue() {
+				return new StringBuilder(128);
+			}
+		};
+		
+		//searches the graph for lines on the calling thread
+		private final LineSearch mainSearch = new LineSearch(graph, random, null);
+		
+		//speculative search: the number of words a line search may try before it is raced by 
+		// (speculationBranches) parallel searches on the pool (0 when disabled)
+		private int speculationThreshold;
+		private int speculationBranches;
+		private ExecutorService speculationPool;
+		
+		//generation statistics, shared by all generators and published over JMX
+		private static final HaikuMetrics metrics = new HaikuMetrics();
+		
+		//optional learner of edges that lead into dead ends (null when disabled)
+		private EdgeLearner learner;
+		
+		//whether the search undoes an abandoned branch's edge changes and retries from the same vertex
+		private boolean backtrackRollback = true;
+		
+		//sound constraints for lines built from templates
+		private boolean rhyming;
+		private boolean alliterating;
+		
+		//the word that the last word of the current line must rhyme with (null for no constraint)
+		private String rhymeTarget;
+		
+		//optional filter of patterns that a finished haiku must not contain (null when disabled)
+		private volatile OutputFilter outputFilter;
+		
+		//the number of haikus in a row that the output filter may reject before generate() gives up
+		public static final int MAX_FILTERED_ATTEMPTS = 100;
+		
+		//statistics for the haiku currently being generated
+		private int backtracks;
+		private int maxDepth;
+	
+	
+	
+     // =========================== CONSTRUCTORS =========================== \\
+	
+	/**
+	 * Creates a generator with an empty dictionary registry.
+	 */
+	public HaikuGenerator() {
+		this(new DictionaryRegistry());
+	}
+	
+	
+	/**
+	 * Creates a generator that takes its words from the given dictionaries.
+	 */
+	public HaikuGenerator(DictionaryRegistry dictionaries) {
+		this.dictionaries = dictionaries;
+	}
+	
+	
+	
+     // ============================ PRIMARY METHODS ================================ \\
+     
+	/**
+	 * Generates a haiku using words from the named dictionary, which then becomes the current dictionary.
+	 * @param dictionaryName the name the dictionary was registered under
+	 * @return a complete haiku, or null if no dictionary has that name.
+	 */
+	public String generate(String dictionaryName) 
+	{
+		if (!useDictionary(dictionaryName))
+			return null;
+		
+		return generate();
+	}
+	
+	
+	/**
+	 * Generates the haiku for the given seed, using the current dictionary.
+	 * 
+	 * With the line cache disabled, the same seed and dictionary always produce the same haiku, in any
+	 * generator and in any process; this is what lets batches be split between processes.
+	 * @return a complete haiku, or null if the output filter rejected every attempt (see generate()).
+	 */
+	public String generate(long seed) 
+	{
+		random.setSeed(seed);
+		return generate();
+	}
+	
+	
+	/**
+	 * The backbone of the program.
+	 * 
+	 * A haiku that contains a pattern of the output filter is generated again; if the filter rejects
+	 * MAX_FILTERED_ATTEMPTS haikus in a row (for instance because it blocks a very common word), 
+	 * generation gives up.
+	 * @return a complete haiku, or null if the output filter rejected every attempt.
+	 */
+	public String generate() 
+	{
+		System.out.print("   Generating a haiku...");		
+		long startTime = System.nanoTime();
+		
+		//-- each line is written straight into a reused buffer; the haiku String is created once, at the end
+		StringBuilder haiku = OUTPUT_BUFFER.get();
+		
+		int retries = -1;
+		int filtered = 0;
+		backtracks = 0;
+		maxDepth = 0;
+		
+		//-- every attempt starts from a fresh graph, not from the state a failed attempt left behind;
+		//   a haiku that contains a blocked pattern counts as a failed attempt
+		OutputFilter filter = outputFilter;
+		while (true) {
+			retries++;
+			haiku.setLength(0);
+			graph.reset();
+			
+			if (!appendLines(haiku))
+				continue;
+			if (filter == null || !filter.matches(haiku))
+				break;
+			
+			if (++filtered >= MAX_FILTERED_ATTEMPTS) {
+				System.out.println("failed: every haiku contained a blocked pattern");
+				return null;
+			}
+		}
+			
+		//capitalize first letter
+		haiku.setCharAt(1, Character.toUpperCase(haiku.charAt(1)));
+		
+		System.out.println("done");
+		
+		String result = haiku.toString();
+		metrics.recordHaiku(System.nanoTime() - startTime, retries, backtracks, maxDepth);
+		
+		return result;
+	}
+	 
+	
+	/**
+	 * Appends the three lines of a haiku to the given buffer. When rhyming, the last word of the 
+	 * third line is chosen to rhyme with the last word of the first.
+	 * 
+	 * @return true if every line was built
+	 */
+	private boolean appendLines(StringBuilder out)
+	{
+		rhymeTarget = null;
+		
+		if (!appendLine(out, 5))
+			return false;
+		
+		String firstLineEnd = rhyming ? lastWord(out) : null;
+		
+		if (!appendLine(out, 7))
+			return false;
+		
+		rhymeTarget = firstLineEnd;
+		try {
+			return appendLine(out, 5);
+		}
+		finally {
+			rhymeTarget = null;
+		}
+	}
+	
+	
+	/**
+	 * Returns the last word in the buffer, without any trailing whitespace or punctuation.
+	 */
+	private static String lastWord(CharSequence text)
+	{
+		int end = text.length();
+		while (end > 0 && !Character.isLetter(text.charAt(end - 1)))
+			end--;
+		
+		int start = end;
+		while (start > 0 && !Character.isWhitespace(text.charAt(start - 1)))
+			start--;
+		
+		return text.subSequence(start, end).toString();
+	}
+	
+	
+	/**
+	 * Appends one complete output line (leading space, words, and newline) to the given buffer, 
+	 * resetting the graph first if the previous line ended the sentence.
+	 * 
+	 * @return true if the line was built; otherwise the buffer is left in an unspecified state
+	 */
+	private boolean appendLine(StringBuilder out, int syllables)
+	{
+		if(graph.reachedEnd())
+			graph.reset();
+		
+		out.append(' ');
+		
+		boolean built = buildLine(syllables, out);
+		metrics.recordLine(built);
+		if (!built)
+			return false;
+		
+		//-- the line is kept, so its edge changes no longer need to be undoable
+		graph.commit();
+		
+		out.append('\n');
+		return true;
+	}
+	
+	
+	/**
+	 * Builds a single line starting from the graph's current vertex, appending its words to the buffer.
+	 * 
+	 * If line templates are enabled, a template for this vertex and syllable target is sampled and, if its
+	 * path is valid in the graph as it is now, filled with words, which never requires searching the graph.
+	 * If a line cache is enabled, a cached skeleton for this vertex and syllable target is re-filled with
+	 * new words; otherwise (or if no word fits a cached slot) the graph is searched (see searchLine), 
+	 * and the skeleton of the resulting line is added to the cache.
+	 * 
+	 * @param syllables the syllable target of the line
+	 * @param out the buffer to append the line to; it is restored to its original length on failure
+	 * @return true if a line was built
+	 */
+	private boolean buildLine(int syllables, StringBuilder out)
+	{
+		int startIndex = graph.getIndex();
+		int mark = out.length();
+		
+		if (templates != null)
+		{
+			LineTemplates.Table table = templates.table(startIndex, syllables);
+			int entry = graph.checkpoint();
+			
+			//-- templates whose path the graph no longer allows are sampled again (which samples from the
+			//   templates that are still valid), up to a limit
+			for (int attempt = 0; table != null && attempt < TEMPLATE_ATTEMPTS; attempt++)
+			{
+				int template = table.sample(random);
+				if (template < 0 || !table.traverse(template, graph))
+					continue;
+				
+				if (fillTemplate(table, template, out))
+					return true;
+				
+				graph.rollback(entry);
+				out.setLength(mark);
+				break;
+			}
+		}
+		
+		LineCache.Skeleton skeleton = null;
+		if (lineCache != null)
+		{
+			skeleton = lineCache.get(startIndex, syllables);
+			metrics.recordCacheLookup(skeleton != null);
+		}
+		
+		if (skeleton != null)
+		{
+			if (fillSkeleton(skeleton, out))
+			{
+				skeleton.traverse(graph);
+				return true;
+			}
+			out.setLength(mark);
+		}
+		
+		LineSearch search = searchLine(syllables, out);
+		if (search == null)
+			return false;
+		
+		if (lineCache != null)
+			lineCache.put(startIndex, syllables, new LineCache.Skeleton(search.slots, search.path));
+		return true;
+	}
+	
+	
+	/**
+	 * Fills every slot of a line template with a random word of matching part of speech and syllable count.
+	 * 
+	 * Sound constraints are applied as in soundWord.
+	 * 
+	 * @return false if the dictionary has no word for some slot
+	 */
+	private boolean fillTemplate(LineTemplates.Table table, int template, StringBuilder out)
+	{
+		int slots = table.slotCount(template);
+		String firstWord = null;
+		
+		for (int k = 0; k < slots; k++)
+		{
+			String word = soundWord(table.pos(template, k), table.syllables(template, k), k == slots - 1, firstWord, random);
+			if (word == null)
+				return false;
+			
+			if (firstWord == null)
+				firstWord = word;
+			
+			appendWord(out, word, table.comma(template, k));
+		}
+		
+		return true;
+	}
+	
+	
+	/**
+	 * Fills every slot of a cached line skeleton with a random word of matching part of speech and 
+	 * syllable count. Sound constraints are applied as in soundWord.
+	 * 
+	 * @return false if the dictionary has no word for some slot
+	 */
+	private boolean fillSkeleton(LineCache.Skeleton skeleton, StringBuilder out)
+	{
+		String firstWord = null;
+		
+		for (int k = 0; k < skeleton.slots.length; k++)
+		{
+			LineCache.Slot slot = skeleton.slots[k];
+			String word = soundWord(slot.pos, slot.syllables, k == skeleton.slots.length - 1, firstWord, random);
+			if (word == null)
+				return false;
+			
+			if (firstWord == null)
+				firstWord = word;
+			
+			appendWord(out, word, slot.comma);
+		}
+		
+		return true;
+	}
+	
+	
+	/**
+	 * Returns a random word with the given part of speech and syllable count, or null if there is none.
+	 * 
+	 * If the word ends the line and the line must rhyme (see setRhyming), it is looked up in the 
+	 * dictionary's rhyme index; otherwise, if alliterating and the line already has a first word, in its
+	 * alliteration index. A constraint that no word can satisfy is dropped, and counted in the metrics.
+	 * 
+	 * @param endsLine whether the word is the last of its line
+	 * @param firstWord the first word of the line so far, or null if this is the first
+	 */
+	private String soundWord(PartOfSpeech pos, int syllables, boolean endsLine, String firstWord, Random random)
+	{
+		String word = null;
+		boolean constrained = false;
+		
+		if (rhymeTarget != null && endsLine)
+		{
+			constrained = true;
+			word = dictionary.randomRhyme(pos, syllables, rhymeTarget, random);
+		}
+		else if (alliterating && firstWord != null)
+		{
+			constrained = true;
+			word = dictionary.randomAlliteration(pos, syllables, firstWord, random);
+		}
+		
+		if (word != null)
+			return word;
+		
+		if (constrained)
+			metrics.recordSoundFallback();
+		return dictionary.randomWord(pos, syllables, random);
+	}
+	
+	
+	/**
+	 * Appends a word to the buffer, replacing its trailing whitespace with ", " if a comma is needed.
+	 */
+	private static void appendWord(StringBuilder out, String word, boolean comma)
+	{
+		if (!comma) {
+			out.append(word);
+			return;
+		}
+		
+		out.append(word, 0, trimmedEnd(word, 0, word.length())).append(", ");
+	}
+	
+	
+	/**
+	 * Returns the index just past the last non-whitespace character in (text[start, end)).
+	 */
+	private static int trimmedEnd(CharSequence text, int start, int end)
+	{
+		while (end > start && text.charAt(end - 1) <= ' ')
+			end--;
+		
+		return end;
+	}
+	
+	
+	/**
+	 * Enables caching of completed line skeletons, holding at most (capacity) skeletons.
+	 * A capacity of 0 disables the cache.
+	 */
+	public void setLineCache(int capacity) {
+		lineCache = (capacity > 0) ? new LineCache(capacity) : null;
+	}
+	
+	
+	/**
+	 * Enables adaptive edge weights: the graph search records which edges lead into dead ends, 
+	 * and the given learner lowers their weight for later searches. A learner may be shared by 
+	 * generators on different threads. Pass null to disable.
+	 */
+	public void setLearner(EdgeLearner learner) 
+	{
+		this.learner = learner;
+		graph.setLearner(learner);
+	}
+	
+	
+	/**
+	 * Returns the edge learner in use, or null if adaptive edge weights are disabled.
+	 */
+	public EdgeLearner getLearner() {
+		return learner;
+	}
+	
+	
+	/**
+	 * Enables or disables rolling back the graph when the search backtracks (enabled by default).
+	 * 
+	 * When enabled, the edge changes made by a branch that led into a dead end are undone, and the next
+	 * heaviest untried edge from the same vertex is tried. When disabled, the search keeps those changes
+	 * and steps on from the vertex that failed, as it did before the graph had an undo journal; this is
+	 * only useful for comparison (see BacktrackRollbackCheck).
+	 */
+	public void setBacktrackRollback(boolean enabled) {
+		backtrackRollback = enabled;
+	}
+	
+	
+	public boolean isBacktrackRollback() {
+		return backtrackRollback;
+	}
+	
+	
+	/**
+	 * Makes the last word of each haiku's third line rhyme with the last word of its first line.
+	 * This applies however the line is built (from a template, a cached skeleton, or by searching), 
+	 * whenever a word that rhymes exists for the slot; see HaikuMetrics.getSoundFallbacks.
+	 */
+	public void setRhyming(boolean enabled) {
+		rhyming = enabled;
+	}
+	
+	
+	/**
+	 * Makes the words of each line alliterate with the first word of that line.
+	 * This applies however the line is built (from a template, a cached skeleton, or by searching), 
+	 * whenever a word that alliterates exists for the slot; see HaikuMetrics.getSoundFallbacks.
+	 */
+	public void setAlliterating(boolean enabled) {
+		alliterating = enabled;
+	}
+	
+	
+	/**
+	 * Enables speculative search on the common fork/join pool; see setSpeculation(int, int, ExecutorService).
+	 */
+	public void setSpeculation(int threshold, int branches) {
+		setSpeculation(threshold, branches, ForkJoinPool.commonPool());
+	}
+	
+	
+	/**
+	 * Enables speculative search for hard lines. Once the search for a line has tried more than 
+	 * (threshold) words, it is abandoned, and (branches) searches from the same starting point are run 
+	 * on the pool, each with its own copy of the graph and its own random stream; the first line found 
+	 * is used, and the other searches stop. Lines that are found within the threshold cost nothing extra.
+	 * 
+	 * Which branch wins depends on thread timing, so with speculation enabled, seeded generation is no
+	 * longer repeatable. A threshold of 0 disables speculation (the default).
+	 */
+	public void setSpeculation(int threshold, int branches, ExecutorService pool)
+	{
+		if (threshold < 0 || (threshold > 0 && (branches < 1 || pool == null)))
+			throw new IllegalArgumentException("speculation needs a non-negative threshold, at least one branch, and a pool");
+		
+		speculationThreshold = threshold;
+		speculationBranches = branches;
+		speculationPool = (threshold > 0) ? pool : null;
+	}
+	
+	
+	/**
+	 * Sets the filter of patterns that no generated haiku may contain; haikus that contain one are 
+	 * generated again. The filter can be replaced at any time, from any thread. Pass null to disable.
+	 * 
+	 * To keep single words from being chosen at all, exclude them from the dictionaries instead
+	 * (see DictionaryRegistry.setExclusions); the filter is for phrases and parts of words.
+	 */
+	public void setOutputFilter(OutputFilter filter) {
+		outputFilter = filter;
+	}
+	
+	
+	/**
+	 * Returns the output filter in use, or null if output filtering is disabled.
+	 */
+	public OutputFilter getOutputFilter() {
+		return outputFilter;
+	}
+	
+	
+	/**
+	 * Returns the line cache in use, or null if line caching is disabled.
+	 */
+	public LineCache getLineCache() {
+		return lineCache;
+	}
+	
+	
+	/**
+	 * Returns the generation statistics shared by all haiku generators.
+	 */
+	public static HaikuMetrics getMetrics() {
+		return metrics;
+	}
+	
+	
+	/**
+	 * Enables or disables generation from precomputed line templates.
+	 * Enabling enumerates every template for the loaded dictionary; this is done once, up front.
+	 */
+	public void setTemplates(boolean enabled) 
+	{
+		templatesByDictionary.clear();
+		templates = null;
+		
+		if (enabled)
+			templates = templatesFor(dictionary);
+	}
+	
+	
+	/**
+	 * Returns the line templates for the given dictionary, enumerating them on first use.
+	 */
+	private LineTemplates templatesFor(Dictionary dictionary)
+	{
+		LineTemplates result = templatesByDictionary.get(dictionary);
+		
+		if (result == null)
+		{
+			result = new LineTemplates(dictionary);
+			templatesByDictionary.put(dictionary, result);
+		}
+		
+		return result;
+	}
+	
+	
+	/**
+	 * Loads a dictionary text file, registers it under the given name, and records its load time.
+	 * The first dictionary loaded becomes the current dictionary.
+	 * 
+	 * @throws IOException if the file cannot be read
+	 */
+	public Dictionary loadDictionary(String name, String filename) throws IOException
+	{
+		long startTime = System.nanoTime();
+		Dictionary loaded = dictionaries.load(name, filename);
+		metrics.recordDictionary(loaded.size(), System.nanoTime() - startTime);
+		
+		if (dictionary == null)
+			useDictionary(name);
+		
+		return loaded;
+	}
+	
+	
+	/**
+	 * Returns the dictionary that words are currently taken from.
+	 */
+	public Dictionary getDictionary() {
+		return dictionary;
+	}
+	
+	
+	/**
+	 * Returns the registry of all dictionaries this generator can use.
+	 */
+	public DictionaryRegistry getDictionaries() {
+		return dictionaries;
+	}
+	
+	
+	/**
+	 * Makes the named dictionary the one that words are taken from.
+	 * 
+	 * @return false if no dictionary is registered under that name
+	 */
+	public boolean useDictionary(String name)
+	{
+		Dictionary next = dictionaries.get(name);
+		if (next == null)
+			return false;
+		
+		if (next != dictionary)
+		{
+			dictionary = next;
+			
+			if (templates != null)
+				templates = templatesFor(next);
+			if (lineCache != null)
+				lineCache.clear();
+		}
+		
+		return true;
+	}
+	
+	
+	// ============================ GRAPH SEARCH ================================ \\
+	
+	/**
+	 * Searches the graph for a line, from the graph's current vertex. If speculation is enabled and the
+	 * search does more than the threshold amount of work, it is abandoned and several speculative 
+	 * searches are raced from the same starting state instead. That state is restored by rolling the 
+	 * graph back to a checkpoint, so the graph is only copied for lines that are actually raced.
+	 * 
+	 * @return the search that completed the line, or null if no line could be built
+	 */
+	private LineSearch searchLine(int syllables, StringBuilder out)
+	{
+		int startIndex = graph.getIndex();
+		
+		if (speculationThreshold <= 0)
+			return collect(mainSearch, mainSearch.run(syllables, startIndex, out, 0));
+		
+		//-- the journal is committed after every kept line, so this checkpoint lasts until the line is done
+		int mark = out.length();
+		int entry = graph.checkpoint();
+		
+		if (collect(mainSearch, mainSearch.run(syllables, startIndex, out, speculationThreshold)) != null)
+			return mainSearch;
+		if (!mainSearch.exhausted)
+			return null;
+		
+		out.setLength(mark);
+		graph.rollback(entry);
+		return speculate(syllables, out);
+	}
+	
+	
+	/**
+	 * Races (speculationBranches) searches for a line on the fork/join pool, each on a private copy of 
+	 * the graph (which must be in its state at the start of the line) and with its own random stream. 
+	 * The first to complete a line wins: its line is appended, the graph takes on its state, and the 
+	 * other searches are told to stop.
+	 * 
+	 * @return the winning search, or null if every branch failed
+	 */
+	private LineSearch speculate(final int syllables, StringBuilder out)
+	{
+		final int startIndex = graph.getIndex();
+		final AtomicBoolean done = new AtomicBoolean();
+		List<Callable<LineSearch>> branches = new ArrayList<Callable<LineSearch>>(speculationBranches);
+		
+		for (int b = 0; b < speculationBranches; b++)
+		{
+			Random branchRandom = new Random(random.nextLong());
+			final LineSearch branch = new LineSearch(new SentenceGraph(graph, branchRandom), branchRandom, done);
+			
+			branches.add(new Callable<LineSearch>()
+			{
+				@Override
+				public LineSearch call() 
+				{
+					if (!branch.run(syllables, startIndex, branch.line, 0))
+						throw new IllegalStateException("no line from vertex " + startIndex);
+					
+					done.set(true);
+					return branch;
+				}
+			});
+		}
+		
+		LineSearch winner;
+		try {
+			winner = speculationPool.invokeAny(branches);
+		} 
+		catch (ExecutionException exception) {
+			return null;    // every branch failed
+		} 
+		catch (InterruptedException exception) {
+			done.set(true);
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		finally {
+			done.set(true);
+		}
+		
+		metrics.recordSpeculation();
+		out.append(winner.line);
+		graph.copyFrom(winner.graph);
+		return collect(winner, true);
+	}
+	
+	
+	/**
+	 * Adds the statistics of a search to those of the current haiku.
+	 * 
+	 * @return the search if it completed its line, otherwise null
+	 */
+	private LineSearch collect(LineSearch search, boolean completed)
+	{
+		backtracks += search.backtracks;
+		maxDepth = Math.max(maxDepth, search.maxDepth);
+		
+		return completed ? search : null;
+	}
+	
+	
+	/**
+	 * A depth-first search of the sentence graph for one line. Each search draws words and edge choices
+	 * from its own graph and random source, so that several may run at once on different threads.
+	 * 
+	 * A search may be given a step budget (the number of words it may try), and may be stopped by 
+	 * another thread through a shared flag; a search that ran out of budget or was stopped fails, 
+	 * with (exhausted) set.
+	 */
+	private class LineSearch 
+	{
+		final SentenceGraph graph;
+		final Random random;
+		
+		//-- set by another search to stop this one (null if it cannot be stopped)
+		private final AtomicBoolean stop;
+		
+		//-- buffer holding the line, for searches that run on another thread
+		final StringBuilder line = new StringBuilder(64);
+		
+		//-- records the word slots of the line, for the line cache
+		final LinkedList<LineCache.Slot> slots = new LinkedList<LineCache.Slot>();
+		
+		//-- records the vertices the line visits after its start vertex, for the line cache
+		final LinkedList<Integer> path = new LinkedList<Integer>();
+		
+		//-- statistics of the last run
+		int backtracks;
+		int maxDepth;
+		boolean exhausted;
+		
+		private int budget;
+		private int steps;
+		
+		//-- the syllable count of the word last returned by nextWord
+		private int wordSyllables;
+		
+		//-- the first word of the line so far (for alliteration), and the recursion level that chose it
+		private String firstWord;
+		private int firstWordDepth;
+		
+		
+		LineSearch(SentenceGraph graph, Random random, AtomicBoolean stop)
+		{
+			this.graph = graph;
+			this.random = random;
+			this.stop = stop;
+		}
+		
+		
+		/**
+		 * Searches for a line of the given number of syllables, appending its words to the buffer.
+		 * 
+		 * @param budget the number of words the search may try, or 0 for no limit
+		 * @return true if the line was completed
+		 */
+		boolean run(int syllables, int startIndex, StringBuilder out, int budget)
+		{
+			this.budget = budget;
+			steps = 0;
+			backtracks = 0;
+			maxDepth = 0;
+			exhausted = false;
+			slots.clear();
+			path.clear();
+			firstWord = null;
+			
+			return buildSentence(syllables, startIndex, out, 1);
+		}
+		
+		
+		/**
+		 * Returns true (and marks the search exhausted) once the budget is spent or another search has won.
+		 */
+		private boolean stopped()
+		{
+			if (!exhausted && ((budget > 0 && steps > budget) || (stop != null && stop.get())))
+				exhausted = true;
+			
+			return exhausted;
+		}
+		
+		
+		/**
+		 * This method recursively traverses the supporting sentence structure graph.
+		 * 
+		 * Words are appended to the output buffer as they are chosen. When a branch turns out to be a 
+		 * dead end, the buffer is truncated back to where it was when this call started.
+		 * 
+		 * @param syllableCount the number of syllables remaining in the current line.
+		 * @param startIndex the index of the current graph node.
+		 * @param out the buffer holding the current haiku line
+		 * @param depth the recursion level of this call, starting at 1
+		 * @return true if the current line was completed
+		 */
+		private boolean buildSentence(int syllablesLeft, int startIndex, StringBuilder out, int depth) 
+		{
+			if (depth > maxDepth)
+				maxDepth = depth;
+			
+			//BASE CASE: the current line contains exactly (target) syllables
+			if (syllablesLeft <= 0)
+				return true;
+			
+			//BASE CASE: end of sentence is reached
+			if (startIndex >= graph.size() - 2 && syllablesLeft <= 0)
+				return true;
+			
+			//the search was abandoned; unwind without recording anything
+			steps++;
+			if (stopped())
+				return false;
+			
+			
+			//Pick a word (in this call) to add. If the dictionary runs out, or if 0 syllables are specified,
+			// this will return null.
+			PartOfSpeech nextPos = graph.getNode(startIndex);
+			
+			//a call at or above the level that chose the line's first word is choosing it again
+			if (firstWord != null && depth <= firstWordDepth)
+				firstWord = null;
+			
+			String word = nextWord(nextPos, syllablesLeft);
+			
+			if (word != null && word.length() > 0 && firstWord == null) {
+				firstWord = word;
+				firstWordDepth = depth;
+			}
+			
+			// if (word == null), no words can be found that meet the criteria.
+			if(word != null) {
+				
+				int syllables = wordSyllables;
+				
+				// Iterate through the edges accessible from this position. Before each new edge is tried, 
+				// the changes that following the previous one made to the graph are undone.
+				int entry = graph.checkpoint();
+				int tried = 0;
+				int i = graph.nextEdge(startIndex, syllablesLeft - syllables);
+				
+				//this stops the sentence from ending on a preposition or article
+				if(graph.reachedEnd() || syllablesLeft - syllables <1)
+						if(nextPos == PartOfSpeech.ARTICLE || nextPos == PartOfSpeech.PREPOSITION ) {
+							System.out.println(" Error: cannot end on a preposition or article. (BACKTRACKING)");
+							backtracks++;
+							return false;
+						}
+				
+				int mark = out.length();
+				out.append(word);
+				
+				while (i >= 0 && graph.hasNextEdge(i) && i < graph.size() - 1) {
+					
+					//attempt travel to the next available edge
+					System.out.println("attempting travel to edge: " + i + "    (pos: " + graph.getNode(i) + ")");
+					tried |= 1 << i;
+					
+					// if sentence can be completed by following this edge, commit the result.
+					// if false, method is backtracking (a dead end was reached in subsequent recursion).
+					boolean completed = buildSentence(syllablesLeft - syllables, i, out, depth + 1);
+					
+					if (!completed && stopped()) {
+						out.setLength(mark);
+						return false;
+					}
+					
+					if (learner != null)
+						learner.record(startIndex, i, syllablesLeft - syllables, !completed);
+					
+					if (completed) {
+						
+						boolean comma = false;
+						if (!(graph.reachedEnd() || syllablesLeft - syllables <1)) {
+							if(nextPos == PartOfSpeech.ADVERB) // this call is an adverb
+								if((i != 2 || i != 8) && (i != 6))	   // next call is not a prep or verb
+									comma = true;
+							if(nextPos == PartOfSpeech.ADJECTIVE) // this call is an adjective
+								if(i == 4 || i == 10)			  // next call is an adjective
+									comma = true;
+						}
+						
+						// replace the word's trailing whitespace with ", " (the rest of the line follows it)
+						if (comma)
+							out.replace(trimmedEnd(out, mark, mark + word.length()), mark + word.length(), ", ");
+						
+						if (lineCache != null && word.length() > 0)
+							slots.addFirst(new LineCache.Slot(nextPos, syllables, comma));
+						if (lineCache != null)
+							path.addFirst(i);
+						
+						return true;
+					}
+					
+					out.setLength(mark + word.length());
+					if (backtrackRollback) {
+						graph.rollback(entry);
+						i = graph.nextEdge(startIndex, syllablesLeft - syllables, tried);
+					}
+					else
+						i = graph.nextEdge(i, syllablesLeft - syllables);
+				}
+				
+				out.setLength(mark);
+			}
+			// if this point is reached, the method either has no more available edges or no words.
+			System.out.println("\n           DEAD END -- BACKTRACKING\n");
+			backtracks++;
+			return false;
+		}
+		
+		
+		/**
+		 * Pick a random word from the dictionary that fits the given criteria, and store its syllable 
+		 * count in wordSyllables. A word that would end the line (one of exactly sMax syllables) must 
+		 * rhyme with the rhyme target, if any, and any word after the first must alliterate with the first
+		 * when alliterating; these are single lookups in the dictionary's sound indexes (see soundWord).
+		 * @param pos the desired part of speech
+		 * @param sMax the MAXIMUM number of syllables that the word can have
+		 */
+		private String nextWord(PartOfSpeech pos, int sMax) {
+			
+			System.out.println(" Searching for a " + pos + " with <" + sMax + " syllables...");
+			
+			wordSyllables = 0;
+			if (pos == PartOfSpeech.BLANK)
+				return "";  // Advances sentence without using syllables or triggering backtracking
+			if (sMax <= 0)
+				return null;
+			
+			// Choose one word at random from all words that meet desired criteria: first its syllable
+			// count (so that it never has to be counted), then the word
+			int syllables = dictionary.randomSyllables(pos, 1, sMax, random);
+			if (syllables < 0)
+				return null;
+			
+			wordSyllables = syllables;
+			return soundWord(pos, syllables, syllables == sMax, firstWord, random);
+		}
+	}
+}
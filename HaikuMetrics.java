@@ -0,0 +1,281 @@
+package haiku;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters describing haiku generation, exposed over JMX as "haiku:type=HaikuMetrics".
+ *
+ * All counters are LongAdders, and the latency histogram is built from them, so recording a haiku
+ * never blocks and does not contend between threads; the metrics can stay on under full load.
+ */
+public class HaikuMetrics implements HaikuMetricsMBean
+{
+	public static final String OBJECT_NAME = "haiku:type=HaikuMetrics";
+
+	private final LongAdder haikus = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder backtracks = new LongAdder();
+	private final LongAdder recursionDepth = new LongAdder();
+	private final LongAdder speculations = new LongAdder();
+	private final LongAdder lines = new LongAdder();
+	private final LongAdder lineFailures = new LongAdder();
+	private final LongAdder soundFallbacks = new LongAdder();
+	private final LongAdder cacheHits = new LongAdder();
+	private final LongAdder cacheMisses = new LongAdder();
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	//-- the time (System.nanoTime) that counting started
+	private volatile long startTime = System.nanoTime();
+
+	private volatile int dictionarySize;
+	private volatile long dictionaryLoadNanos;
+
+
+
+	/************************************\
+	 *         RECORDING
+	 *
+	\************************************/
+
+	/**
+	 * Records one generated haiku.
+	 *
+	 * @param nanos the time taken to generate it
+	 * @param retries the number of times generation started over
+	 * @param backtracks the number of dead ends backtracked out of
+	 * @param maxDepth the deepest recursion level reached while building its lines
+	 */
+	public void recordHaiku(long nanos, int retries, int backtracks, int maxDepth)
+	{
+		haikus.increment();
+		latency.record(nanos);
+
+		if (retries > 0)
+			this.retries.add(retries);
+		if (backtracks > 0)
+			this.backtracks.add(backtracks);
+
+		recursionDepth.add(maxDepth);
+	}
+
+
+	/**
+	 * Records one attempt at building a line of a haiku, and whether it succeeded.
+	 */
+	public void recordLine(boolean built)
+	{
+		lines.increment();
+		if (!built)
+			lineFailures.increment();
+	}
+
+
+	/**
+	 * Records one line that was completed by a speculative search, after the first search ran too long.
+	 */
+	public void recordSpeculation() {
+		speculations.increment();
+	}
+
+
+	/**
+	 * Records one word that had to be chosen without its rhyme or alliteration constraint, because no word
+	 * of its part of speech and syllable count satisfied it.
+	 */
+	public void recordSoundFallback() {
+		soundFallbacks.increment();
+	}
+
+
+	/**
+	 * Records one lookup in a line cache (see HaikuGenerator.setLineCache), and whether it found a 
+	 * skeleton.
+	 */
+	public void recordCacheLookup(boolean hit)
+	{
+		if (hit)
+			cacheHits.increment();
+		else
+			cacheMisses.increment();
+	}
+
+
+	/**
+	 * Records the size of the loaded dictionary, and how long it took to load.
+	 */
+	public void recordDictionary(int size, long loadNanos)
+	{
+		dictionarySize = size;
+		dictionaryLoadNanos = loadNanos;
+	}
+
+
+	/**
+	 * Registers this object with the platform MBean server, replacing any earlier registration.
+	 *
+	 * @return false if registration failed
+	 */
+	public boolean register()
+	{
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+
+			if (server.isRegistered(name))
+				server.unregisterMBean(name);
+
+			server.registerMBean(this, name);
+			return true;
+
+		} catch (JMException exception) {
+			exception.printStackTrace();
+			return false;
+		}
+	}
+
+
+
+	/************************************\
+	 *         MBEAN ATTRIBUTES
+	 *
+	\************************************/
+
+	public long getHaikusGenerated() {
+		return haikus.sum();
+	}
+
+
+	public double getHaikusPerSecond()
+	{
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		return seconds <= 0.0 ? 0.0 : haikus.sum() / seconds;
+	}
+
+
+	public double getLatencyMeanMicros() {
+		return latency.mean() / 1000.0;
+	}
+
+
+	public long getLatencyP50Micros() {
+		return TimeUnit.NANOSECONDS.toMicros(latency.percentile(50.0));
+	}
+
+
+	public long getLatencyP99Micros() {
+		return TimeUnit.NANOSECONDS.toMicros(latency.percentile(99.0));
+	}
+
+
+	public long getLatencyP999Micros() {
+		return TimeUnit.NANOSECONDS.toMicros(latency.percentile(99.9));
+	}
+
+
+	public double getAverageRecursionDepth() {
+		return average(recursionDepth.sum());
+	}
+
+
+	public long getBacktracks() {
+		return backtracks.sum();
+	}
+
+
+	public double getAverageBacktracks() {
+		return average(backtracks.sum());
+	}
+
+
+	public long getRetries() {
+		return retries.sum();
+	}
+
+
+	public long getSpeculations() {
+		return speculations.sum();
+	}
+
+
+	public long getLineFailures() {
+		return lineFailures.sum();
+	}
+
+
+	public double getLineFailureRate()
+	{
+		long n = lines.sum();
+		return n == 0 ? 0.0 : (double) lineFailures.sum() / n;
+	}
+
+
+	public long getSoundFallbacks() {
+		return soundFallbacks.sum();
+	}
+
+
+	public long getCacheHits() {
+		return cacheHits.sum();
+	}
+
+
+	public long getCacheMisses() {
+		return cacheMisses.sum();
+	}
+
+
+	public double getCacheHitRate()
+	{
+		long hits = cacheHits.sum();
+		long n = hits + cacheMisses.sum();
+		return n == 0 ? 0.0 : (double) hits / n;
+	}
+
+
+	public int getDictionarySize() {
+		return dictionarySize;
+	}
+
+
+	public long getDictionaryLoadMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(dictionaryLoadNanos);
+	}
+
+
+	/**
+	 * Returns the latency histogram of generated haikus, in nanoseconds.
+	 */
+	public LatencyHistogram getLatencyHistogram() {
+		return latency;
+	}
+
+
+	public void reset()
+	{
+		haikus.reset();
+		retries.reset();
+		backtracks.reset();
+		recursionDepth.reset();
+		speculations.reset();
+		lines.reset();
+		lineFailures.reset();
+		soundFallbacks.reset();
+		cacheHits.reset();
+		cacheMisses.reset();
+		latency.reset();
+		startTime = System.nanoTime();
+	}
+
+
+	private double average(long total)
+	{
+		long n = haikus.sum();
+		return n == 0 ? 0.0 : (double) total / n;
+	}
+}
@@ -0,0 +1,67 @@
+package haiku;
+
+/**
+ * The management interface for HaikuMetrics, as exposed over JMX.
+ */
+public interface HaikuMetricsMBean
+{
+	/** Returns the number of haikus generated since startup (or the last reset). */
+	long getHaikusGenerated();
+
+	/** Returns the average number of haikus generated per second since startup (or the last reset). */
+	double getHaikusPerSecond();
+
+	/** Returns the mean time taken to generate one haiku, in microseconds. */
+	double getLatencyMeanMicros();
+
+	/** Returns the median time taken to generate one haiku, in microseconds. */
+	long getLatencyP50Micros();
+
+	/** Returns the 99th percentile time taken to generate one haiku, in microseconds. */
+	long getLatencyP99Micros();
+
+	/** Returns the 99.9th percentile time taken to generate one haiku, in microseconds. */
+	long getLatencyP999Micros();
+
+	/** Returns the average deepest recursion level reached by buildSentence per haiku. */
+	double getAverageRecursionDepth();
+
+	/** Returns the total number of dead ends that buildSentence backtracked out of. */
+	long getBacktracks();
+
+	/** Returns the average number of dead ends backtracked out of per haiku. */
+	double getAverageBacktracks();
+
+	/** Returns the total number of times generate() had to start a haiku over. */
+	long getRetries();
+
+	/** Returns the number of lines that were completed by a speculative search. */
+	long getSpeculations();
+
+	/** Returns the total number of lines that could not be built, each of which forced a retry. */
+	long getLineFailures();
+
+	/** Returns the fraction of attempts at building a line that failed. */
+	double getLineFailureRate();
+
+	/** Returns the number of words whose rhyme or alliteration constraint no word could satisfy, and was dropped. */
+	long getSoundFallbacks();
+
+	/** Returns the number of line cache lookups that found a skeleton to reuse. */
+	long getCacheHits();
+
+	/** Returns the number of line cache lookups that found nothing, so the line was searched for. */
+	long getCacheMisses();
+
+	/** Returns the fraction of line cache lookups that found a skeleton. */
+	double getCacheHitRate();
+
+	/** Returns the number of words in the loaded dictionary. */
+	int getDictionarySize();
+
+	/** Returns the time taken to load the dictionary, in milliseconds. */
+	long getDictionaryLoadMillis();
+
+	/** Clears all generation statistics. Dictionary statistics are kept. */
+	void reset();
+}
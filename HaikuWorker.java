@@ -0,0 +1,85 @@
+package haiku;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * A headless worker process, launched by a HaikuCoordinator.
+ *
+ * The worker loads its dictionary, connects back to the coordinator over a local socket, and then
+ * generates each batch of haikus it is sent, using the seed of each haiku's position in the run.
+ *
+ * Usage: java haiku.HaikuWorker (port) (dictionary file) [templates]
+ */
+public class HaikuWorker
+{
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 2)
+		{
+			System.err.println("usage: HaikuWorker <port> <dictionary file> [templates]");
+			System.exit(2);
+		}
+
+		int port = Integer.parseInt(args[0]);
+
+		//-- generation traces are of no use in a worker, and printing them would only slow it down
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+		HaikuGenerator generator = new HaikuGenerator();
+		generator.loadDictionary(HaikuGenerator.DEFAULT_DICTIONARY, args[1]);
+		generator.setTemplates(args.length > 2 && args[2].equals("templates"));
+
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		try {
+			serve(generator, socket);
+		}
+		finally {
+			socket.close();
+		}
+	}
+
+
+	/**
+	 * Answers batch requests until the coordinator asks the worker to stop, or disconnects.
+	 *
+	 * Each request is (long first, int count, long seed); the reply is (count) haikus, written as UTF strings.
+	 * A negative count ends the session.
+	 */
+	static void serve(HaikuGenerator generator, Socket socket) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+
+		while (true)
+		{
+			long first;
+			int count;
+			long seed;
+
+			try {
+				first = in.readLong();
+				count = in.readInt();
+				seed = in.readLong();
+			} catch (EOFException exception) {
+				return;
+			}
+
+			if (count < 0)
+				return;
+
+			for (int i = 0; i < count; i++)
+				out.writeUTF(generator.generate(HaikuCoordinator.seedFor(seed, first + i)));
+
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package haiku;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent histogram of positive long values (such as latencies in nanoseconds), in the style of
+ * HdrHistogram: values are grouped into buckets by their power of two, and each power of two is split
+ * into a fixed number of linear sub-buckets. Every reported percentile is therefore accurate to within
+ * 1 / SUB_BUCKETS of the true value (about 6%), over the entire range of a long.
+ *
+ * Each bucket is a LongAdder, so recording never blocks and scales with the number of threads.
+ */
+public class LatencyHistogram
+{
+	//-- number of linear sub-buckets per power of two; must be a power of two itself
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	private final LongAdder[] buckets = new LongAdder[(64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+
+
+
+	public LatencyHistogram()
+	{
+		for (int i = 0; i < buckets.length; i++)
+			buckets[i] = new LongAdder();
+	}
+
+
+	/**
+	 * Records a single value. Negative values are recorded as 0.
+	 */
+	public void record(long value)
+	{
+		if (value < 0)
+			value = 0;
+
+		buckets[bucketOf(value)].increment();
+		count.increment();
+		sum.add(value);
+	}
+
+
+	/**
+	 * Returns the number of values recorded.
+	 */
+	public long count() {
+		return count.sum();
+	}
+
+
+	/**
+	 * Returns the mean of all recorded values, or 0 if nothing has been recorded.
+	 */
+	public double mean()
+	{
+		long n = count.sum();
+		return n == 0 ? 0.0 : (double) sum.sum() / n;
+	}
+
+
+	/**
+	 * Returns (an upper bound of) the value below which the given percentage of recorded values fall.
+	 *
+	 * @param percentile a number between 0.0 and 100.0
+	 */
+	public long percentile(double percentile)
+	{
+		long[] counts = new long[buckets.length];
+		long total = 0;
+
+		for (int i = 0; i < buckets.length; i++)
+		{
+			counts[i] = buckets[i].sum();
+			total += counts[i];
+		}
+
+		if (total == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(Math.min(Math.max(percentile, 0.0), 100.0) / 100.0 * total);
+		rank = Math.max(rank, 1);
+
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++)
+		{
+			seen += counts[i];
+			if (seen >= rank)
+				return upperBound(i);
+		}
+
+		return upperBound(counts.length - 1);
+	}
+
+
+	/**
+	 * Clears all recorded values.
+	 */
+	public void reset()
+	{
+		for (LongAdder bucket : buckets)
+			bucket.reset();
+
+		count.reset();
+		sum.reset();
+	}
+
+
+
+	/************************************\
+	 *         BUCKET LAYOUT
+	 *
+	\************************************/
+
+	/**
+	 * Values below SUB_BUCKETS are stored exactly. Larger values are stored by their highest set bit,
+	 * followed by the next SUB_BUCKET_BITS bits.
+	 */
+	private static int bucketOf(long value)
+	{
+		if (value < SUB_BUCKETS)
+			return (int) value;
+
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);      // >= SUB_BUCKET_BITS
+		int shift = magnitude - SUB_BUCKET_BITS;
+		int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+
+		return (shift + 1) * SUB_BUCKETS + sub;
+	}
+
+
+	/**
+	 * Returns the largest value that falls into the given bucket.
+	 */
+	private static long upperBound(int bucket)
+	{
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+
+		int shift = bucket / SUB_BUCKETS - 1;
+		long sub = bucket % SUB_BUCKETS;
+		long lowest = (SUB_BUCKETS | sub) << shift;
+
+		return lowest + (1L << shift) - 1;
+	}
+}
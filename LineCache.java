@@ -0,0 +1,290 @@
+package haiku;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A bounded cache of completed haiku lines, stored as part-of-speech skeletons.
+ *
+ * Each skeleton records the part of speech, syllable count and punctuation of every word in a line
+ * that was once built by searching the sentence graph, and the path of vertices that the search took.
+ * Skeletons are grouped by the vertex the line started on and by its syllable target; once a group holds
+ * enough variety, new lines are made by re-filling one of its skeletons with fresh words instead of
+ * searching the graph again, and the graph is moved along the skeleton's path (see Skeleton.traverse).
+ *
+ * The capacity bounds the number of skeletons. Once it is reached, skeletons are evicted one at a time,
+ * oldest first, from the least recently used group. A group that already holds (variety) skeletons
+ * takes a new skeleton in place of a random one, so that it keeps following the graph as it changes.
+ */
+public class LineCache
+{
+	//-- default number of distinct skeletons collected per group before the cache starts answering
+	public static final int DEFAULT_VARIETY = 8;
+
+	//-- skeleton groups, keyed by (start vertex, syllable target), in access order
+	private final LinkedHashMap<Integer, List<Skeleton>> groups;
+
+	//-- maximum number of skeletons kept in a single group, and in the whole cache
+	private final int variety;
+	private final int capacity;
+
+	//-- number of skeletons in all groups
+	private int size;
+
+	private final Random random = new Random();
+
+	//-- usage statistics
+	private long hits;
+	private long misses;
+
+
+
+	/************************************\
+	 *         CONSTRUCTORS
+	 *
+	\************************************/
+
+	/**
+	 * Creates a cache holding at most the given number of skeletons, with the default variety
+	 * (or less, if the capacity is smaller).
+	 */
+	public LineCache(int capacity) {
+		this(capacity, Math.min(capacity, DEFAULT_VARIETY));
+	}
+
+
+	/**
+	 * Creates a cache holding at most (capacity) skeletons, with up to (variety) skeletons in each group.
+	 * The capacity must be at least the variety, or no group could ever be used.
+	 */
+	public LineCache(int capacity, int variety)
+	{
+		if (capacity < 1 || variety < 1)
+			throw new IllegalArgumentException("capacity and variety must be positive");
+		if (capacity < variety)
+			throw new IllegalArgumentException("capacity " + capacity + " is less than variety " + variety);
+
+		this.capacity = capacity;
+		this.variety = variety;
+		this.groups = new LinkedHashMap<Integer, List<Skeleton>>(16, 0.75f, true);
+	}
+
+
+
+	/************************************\
+	 *         CACHE ACCESS
+	 *
+	\************************************/
+
+	/**
+	 * Returns a random skeleton for a line starting on the given vertex with the given syllable target,
+	 * or null if the group is missing or has not yet collected enough variety.
+	 */
+	public synchronized Skeleton get(int startIndex, int syllables)
+	{
+		List<Skeleton> group = groups.get(key(startIndex, syllables));
+
+		if (group == null || group.size() < variety)
+		{
+			misses++;
+			return null;
+		}
+
+		hits++;
+		return group.get(random.nextInt(group.size()));
+	}
+
+
+	/**
+	 * Records the skeleton of a line that was built by searching the graph.
+	 * Skeletons already present in the group are ignored; in a full group, the new skeleton replaces a
+	 * random one.
+	 */
+	public synchronized void put(int startIndex, int syllables, Skeleton skeleton)
+	{
+		if (skeleton == null)
+			return;
+
+		Integer key = key(startIndex, syllables);
+		List<Skeleton> group = groups.get(key);
+
+		if (group == null)
+		{
+			group = new ArrayList<Skeleton>(variety);
+			groups.put(key, group);
+		}
+
+		if (group.contains(skeleton))
+			return;
+
+		if (group.size() >= variety)
+		{
+			group.set(random.nextInt(group.size()), skeleton);
+			return;
+		}
+
+		group.add(skeleton);
+		size++;
+
+		// the group just used is the most recent, so (as capacity >= variety) it is never the one evicted from
+		while (size > capacity)
+		{
+			Iterator<List<Skeleton>> eldest = groups.values().iterator();
+			List<Skeleton> victim = eldest.next();
+
+			victim.remove(0);
+			size--;
+			if (victim.isEmpty())
+				eldest.remove();
+		}
+	}
+
+
+	/**
+	 * Returns the number of skeletons in this cache.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+
+	/**
+	 * Removes every skeleton from this cache and clears its statistics.
+	 */
+	public synchronized void clear()
+	{
+		groups.clear();
+		size = 0;
+		hits = 0;
+		misses = 0;
+	}
+
+
+	private static Integer key(int startIndex, int syllables) {
+		return (startIndex << 8) | syllables;
+	}
+
+
+
+	/************************************\
+	 *         STATISTICS
+	 *
+	\************************************/
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+
+	/**
+	 * Returns the fraction of lookups that were answered from the cache, between 0.0 and 1.0.
+	 */
+	public synchronized double getHitRate()
+	{
+		long total = hits + misses;
+		return total == 0 ? 0.0 : (double) hits / total;
+	}
+
+
+
+	/************************************\
+	 *         SKELETONS
+	 *
+	\************************************/
+
+	/**
+	 * A single word position in a line skeleton.
+	 */
+	public static class Slot
+	{
+		public final PartOfSpeech pos;
+		public final int syllables;
+		public final boolean comma;   // whether the word is followed by a comma
+
+		public Slot(PartOfSpeech pos, int syllables, boolean comma)
+		{
+			this.pos = pos;
+			this.syllables = syllables;
+			this.comma = comma;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Slot))
+				return false;
+
+			Slot other = (Slot) o;
+			return pos == other.pos && syllables == other.syllables && comma == other.comma;
+		}
+
+		@Override
+		public int hashCode() {
+			return (pos.ordinal() * 31 + syllables) * 2 + (comma ? 1 : 0);
+		}
+	}
+
+
+	/**
+	 * The word slots of a complete line, together with the graph vertices the line visited after its start
+	 * vertex (the last of which is the vertex it ended on).
+	 */
+	public static class Skeleton
+	{
+		public final Slot[] slots;
+		public final int endIndex;
+		private final int[] path;
+
+		public Skeleton(List<Slot> slots, List<Integer> path)
+		{
+			if (path.isEmpty())
+				throw new IllegalArgumentException("a line visits at least one vertex");
+
+			this.slots = slots.toArray(new Slot[slots.size()]);
+			this.path = new int[path.size()];
+
+			int k = 0;
+			for (int vertex : path)
+				this.path[k++] = vertex;
+			this.endIndex = this.path[k - 1];
+		}
+
+		/**
+		 * Moves the graph along the path of this skeleton, from its current vertex (the line's start
+		 * vertex), making every change to the edge weights that the original search made.
+		 */
+		public void traverse(SentenceGraph graph)
+		{
+			int current = graph.getIndex();
+			for (int vertex : path)
+			{
+				graph.traverse(current, vertex);
+				current = vertex;
+			}
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Skeleton))
+				return false;
+
+			Skeleton other = (Skeleton) o;
+			return Arrays.equals(path, other.path) && Arrays.equals(slots, other.slots);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * Arrays.hashCode(slots) + Arrays.hashCode(path);
+		}
+	}
+}
@@ -0,0 +1,443 @@
+package haiku;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A precomputed table of every valid line template that the sentence graph can produce.
+ *
+ * A template is a sequence of (part of speech, syllable count) word slots, together with the path of
+ * vertices that the line visits and its probability. Templates are enumerated once, by following every
+ * edge that SentenceGraph.nextEdge() can choose from a freshly reset graph (applying its adjustMatrix
+ * rules along each path), for every start vertex and for the syllable targets 5 and 7.
+ *
+ * A template's probability is the chance that a single pass of the line search, without backtracking,
+ * produces it: each edge is weighted by the exact probability that nextEdge() chooses it (see
+ * SentenceGraph.edgeProbabilities), and each word by the share of words with its syllable count. The
+ * probabilities are computed without learned edge adjustments.
+ *
+ * Because templates are enumerated from a reset graph, a template is only known to be valid for a line
+ * that starts from one. After the first line of a haiku, adjustMatrix has changed the graph, and an edge
+ * of the template's path may have been removed (for example NOUN -> ADVERB after START -> NOUN). So a
+ * sampled template is replayed against the live graph first (see Table.traverse), and is rejected if its
+ * path crosses an edge of weight 0 or reaches a vertex without edges; the caller then searches instead.
+ *
+ * A line is made by sampling a template and filling each slot with a random dictionary word of the
+ * right part of speech and syllable count, without any searching or backtracking; replaying the
+ * template's path changes the graph as the search would have.
+ */
+public class LineTemplates
+{
+	//-- the syllable targets that templates are enumerated for
+	public static final int[] TARGETS = {5, 7};
+
+	//-- slot encoding: bits 0-2 store syllables, bits 3-5 store the part of speech, bit 6 the comma flag
+	private static final int SYLLABLE_MASK = 0x07;
+	private static final int POS_SHIFT = 3;
+	private static final int COMMA_BIT = 0x40;
+
+	//-- the longest vertex path that is enumerated; blank vertices don't use syllables, so this bounds the recursion
+	private static final int MAX_PATH = 32;
+
+	//-- paths less likely than this are not enumerated (edges that only noise can choose make many of them)
+	private static final double MIN_PROBABILITY = 1e-9;
+
+	//-- templates, indexed by [start vertex][syllable target]
+	private final Table[][] tables;
+
+	//-- number of dictionary words for each [part of speech][syllable count]
+	private final int[][] available;
+
+
+
+	/************************************\
+	 *         CONSTRUCTOR
+	 *
+	\************************************/
+
+	/**
+	 * Enumerates all line templates that can be filled from the given dictionary.
+	 */
+	public LineTemplates(Dictionary dictionary)
+	{
+		int maxTarget = 0;
+		for (int target : TARGETS)
+			maxTarget = Math.max(maxTarget, target);
+
+		PartOfSpeech[] parts = PartOfSpeech.values();
+		available = new int[parts.length][maxTarget + 1];
+		for (PartOfSpeech pos : parts)
+			for (int syl = 1; syl <= maxTarget; syl++)
+				available[pos.ordinal()][syl] = dictionary.wordList(pos, syl).size();
+
+		SentenceGraph graph = new SentenceGraph();
+		tables = new Table[graph.size()][maxTarget + 1];
+
+		for (int start = 0; start < graph.size() - 1; start++)
+			for (int target : TARGETS)
+			{
+				Builder builder = new Builder();
+				enumerate(new SentenceGraph(), start, target, 1.0, new byte[target], 0, new byte[MAX_PATH], 0, builder);
+				tables[start][target] = builder.build();
+			}
+	}
+
+
+
+	/************************************\
+	 *         ENUMERATION
+	 *
+	\************************************/
+
+	/**
+	 * Recursively walks every traversable edge from the given vertex, emitting a template each time a
+	 * path reaches exactly the syllable target. This mirrors the rules of HaikuGenerator.LineSearch:
+	 *   - a line may not end on an article or preposition,
+	 *   - a line may not step onto the end vertex, or onto a vertex without edges,
+	 *   - adverbs (not followed by a verb) and adjectives followed by adjectives get a comma.
+	 *
+	 * @param graph the graph state on arrival at this vertex (not modified)
+	 * @param vertex the current vertex
+	 * @param syllablesLeft the number of syllables still needed in this line
+	 * @param probability the probability of the path so far
+	 * @param slots the encoded word slots of the path so far
+	 * @param depth the number of slots used so far
+	 * @param path the vertices visited after the start vertex so far
+	 * @param length the number of vertices in the path
+	 */
+	private void enumerate(SentenceGraph graph, int vertex, int syllablesLeft, double probability,
+			byte[] slots, int depth, byte[] path, int length, Builder out)
+	{
+		PartOfSpeech pos = graph.getNode(vertex);
+
+		if (pos == PartOfSpeech.BLANK)
+		{
+			// a blank vertex advances the sentence without using any syllables
+			followEdges(graph, vertex, syllablesLeft, probability, slots, depth, path, length, out);
+			return;
+		}
+
+		//-- LineSearch.nextWord() picks uniformly among all words of 1..syllablesLeft syllables
+		int total = 0;
+		for (int syl = 1; syl <= syllablesLeft; syl++)
+			total += available[pos.ordinal()][syl];
+
+		for (int syl = 1; syl <= syllablesLeft; syl++)
+		{
+			int count = available[pos.ordinal()][syl];
+			if (count == 0)
+				continue;
+
+			int remaining = syllablesLeft - syl;
+			if (remaining == 0 && (pos == PartOfSpeech.ARTICLE || pos == PartOfSpeech.PREPOSITION))
+				continue;
+
+			slots[depth] = encode(pos, syl, false);
+			followEdges(graph, vertex, remaining, probability * count / total, slots, depth + 1, path, length, out);
+		}
+	}
+
+
+	/**
+	 * Follows each edge that nextEdge() can choose out of the given vertex, after a word (if any) has 
+	 * been placed on it.
+	 */
+	private void followEdges(SentenceGraph graph, int vertex, int syllablesLeft, double probability,
+			byte[] slots, int depth, byte[] path, int length, Builder out)
+	{
+		if (length == path.length)
+			return;
+
+		double[] choice = graph.edgeProbabilities(vertex);
+		PartOfSpeech pos = graph.getNode(vertex);
+
+		for (int next = 0; next < graph.size() - 1; next++)
+		{
+			double p = probability * choice[next];
+			if (p < MIN_PROBABILITY)
+				continue;
+
+			SentenceGraph branch = new SentenceGraph(graph);
+			branch.traverse(vertex, next);
+
+			if (!branch.hasNextEdge(next))
+				continue;
+
+			if (pos != PartOfSpeech.BLANK)
+				slots[depth - 1] = withComma(slots[depth - 1], syllablesLeft > 0 && needsComma(pos, next));
+
+			path[length] = (byte) next;
+
+			if (syllablesLeft == 0)
+				out.add(slots, depth, path, length + 1, p);
+			else
+				enumerate(branch, next, syllablesLeft, p, slots, depth, path, length + 1, out);
+		}
+	}
+
+
+	/**
+	 * Returns true if a word with the given part of speech is followed by a comma when the next vertex is visited.
+	 */
+	private static boolean needsComma(PartOfSpeech pos, int next)
+	{
+		if (pos == PartOfSpeech.ADVERB)
+			return next != 6;      // next word is not a verb
+		if (pos == PartOfSpeech.ADJECTIVE)
+			return next == 4 || next == 10;   // next word is an adjective
+
+		return false;
+	}
+
+
+
+	/************************************\
+	 *         LOOKUP
+	 *
+	\************************************/
+
+	/**
+	 * Returns the templates for a line starting on the given vertex with the given syllable target,
+	 * or null if no templates were enumerated for that combination.
+	 */
+	public Table table(int startIndex, int syllables)
+	{
+		if (startIndex < 0 || startIndex >= tables.length || syllables < 0 || syllables >= tables[startIndex].length)
+			return null;
+
+		return tables[startIndex][syllables];
+	}
+
+
+	/**
+	 * Returns the total number of templates in this table.
+	 */
+	public int size()
+	{
+		int size = 0;
+		for (Table[] row : tables)
+			for (Table table : row)
+				if (table != null)
+					size += table.size();
+
+		return size;
+	}
+
+
+	private static byte encode(PartOfSpeech pos, int syllables, boolean comma) {
+		return (byte) ((pos.ordinal() << POS_SHIFT) | syllables | (comma ? COMMA_BIT : 0));
+	}
+
+
+	private static byte withComma(byte slot, boolean comma) {
+		return (byte) (comma ? (slot | COMMA_BIT) : (slot & ~COMMA_BIT));
+	}
+
+
+
+	/************************************\
+	 *         TEMPLATE TABLE
+	 *
+	\************************************/
+
+	/**
+	 * The templates for a single (start vertex, syllable target) pair, stored as flat arrays.
+	 * Templates are sampled by their probability with Vose's alias method, in constant time.
+	 */
+	public static class Table
+	{
+		private static final PartOfSpeech[] PARTS = PartOfSpeech.values();
+
+		private final byte[] slots;         // encoded slots of all templates, back to back
+		private final int[] offsets;        // start of each template in slots; offsets[size] == slots.length
+		private final byte[] paths;         // vertex paths of all templates, back to back
+		private final int[] pathOffsets;    // start of each template in paths; pathOffsets[size] == paths.length
+		private final double[] probability; // normalized probability of each template
+
+		//-- alias method tables
+		private final double[] threshold;
+		private final int[] alias;
+
+
+		private Table(byte[] slots, int[] offsets, byte[] paths, int[] pathOffsets, double[] weights)
+		{
+			this.slots = slots;
+			this.offsets = offsets;
+			this.paths = paths;
+			this.pathOffsets = pathOffsets;
+
+			int n = weights.length;
+			double sum = 0.0;
+			for (double w : weights)
+				sum += w;
+
+			probability = new double[n];
+			threshold = new double[n];
+			alias = new int[n];
+
+			ArrayDeque<Integer> small = new ArrayDeque<Integer>();
+			ArrayDeque<Integer> large = new ArrayDeque<Integer>();
+
+			for (int i = 0; i < n; i++)
+			{
+				probability[i] = weights[i] / sum;
+				threshold[i] = probability[i] * n;
+
+				if (threshold[i] < 1.0)
+					small.push(i);
+				else
+					large.push(i);
+			}
+
+			while (!small.isEmpty() && !large.isEmpty())
+			{
+				int s = small.pop();
+				int l = large.pop();
+
+				alias[s] = l;
+				threshold[l] = threshold[l] + threshold[s] - 1.0;
+
+				if (threshold[l] < 1.0)
+					small.push(l);
+				else
+					large.push(l);
+			}
+
+			// anything left over is (up to rounding error) exactly 1.0
+			while (!small.isEmpty())
+				threshold[small.pop()] = 1.0;
+			while (!large.isEmpty())
+				threshold[large.pop()] = 1.0;
+		}
+
+
+		/**
+		 * Returns the number of templates in this table.
+		 */
+		public int size() {
+			return probability.length;
+		}
+
+
+		/**
+		 * Picks a random template, weighted by probability. Returns -1 if this table is empty.
+		 */
+		public int sample(Random random)
+		{
+			if (probability.length == 0)
+				return -1;
+
+			int i = random.nextInt(probability.length);
+			return (random.nextDouble() < threshold[i]) ? i : alias[i];
+		}
+
+
+		public int slotCount(int template) {
+			return offsets[template + 1] - offsets[template];
+		}
+
+		public PartOfSpeech pos(int template, int slot) {
+			return PARTS[slots[offsets[template] + slot] >> POS_SHIFT & SYLLABLE_MASK];
+		}
+
+		public int syllables(int template, int slot) {
+			return slots[offsets[template] + slot] & SYLLABLE_MASK;
+		}
+
+		public boolean comma(int template, int slot) {
+			return (slots[offsets[template] + slot] & COMMA_BIT) != 0;
+		}
+
+		public int endIndex(int template) {
+			return paths[pathOffsets[template + 1] - 1];
+		}
+
+		/**
+		 * Moves the graph along the vertex path of a template, from its current vertex (the template's
+		 * start vertex), making every change to the edge weights that the line search would have made.
+		 *
+		 * If the path is not valid in the graph as it is now, because one of its edges has weight 0 or it
+		 * reaches a vertex without edges, the graph is rolled back to where it was and false is returned.
+		 *
+		 * @return true if the whole path was traversed
+		 */
+		public boolean traverse(int template, SentenceGraph graph)
+		{
+			int entry = graph.checkpoint();
+			int current = graph.getIndex();
+
+			for (int k = pathOffsets[template]; k < pathOffsets[template + 1]; k++)
+			{
+				int next = paths[k];
+				if (graph.getEdge(current, next) <= 0.0)
+				{
+					graph.rollback(entry);
+					return false;
+				}
+
+				graph.traverse(current, next);
+				if (!graph.hasNextEdge(next))
+				{
+					graph.rollback(entry);
+					return false;
+				}
+				current = next;
+			}
+
+			return true;
+		}
+
+		public double probability(int template) {
+			return probability[template];
+		}
+	}
+
+
+	/**
+	 * Collects templates during enumeration.
+	 */
+	private static class Builder
+	{
+		private byte[] slots = new byte[256];
+		private int[] offsets = new int[64];
+		private byte[] paths = new byte[256];
+		private int[] pathOffsets = new int[64];
+		private double[] weights = new double[64];
+		private int count;
+		private int length;
+		private int pathLength;
+
+		void add(byte[] slotPath, int depth, byte[] vertexPath, int vertices, double weight)
+		{
+			if (count + 1 >= offsets.length)
+			{
+				offsets = Arrays.copyOf(offsets, offsets.length * 2);
+				pathOffsets = Arrays.copyOf(pathOffsets, pathOffsets.length * 2);
+				weights = Arrays.copyOf(weights, weights.length * 2);
+			}
+			if (length + depth > slots.length)
+				slots = Arrays.copyOf(slots, Math.max(slots.length * 2, length + depth));
+			if (pathLength + vertices > paths.length)
+				paths = Arrays.copyOf(paths, Math.max(paths.length * 2, pathLength + vertices));
+
+			System.arraycopy(slotPath, 0, slots, length, depth);
+			System.arraycopy(vertexPath, 0, paths, pathLength, vertices);
+			offsets[count] = length;
+			pathOffsets[count] = pathLength;
+			weights[count] = weight;
+
+			length += depth;
+			pathLength += vertices;
+			count++;
+			offsets[count] = length;
+			pathOffsets[count] = pathLength;
+		}
+
+		Table build()
+		{
+			return new Table(Arrays.copyOf(slots, length), Arrays.copyOf(offsets, count + 1),
+					Arrays.copyOf(paths, pathLength), Arrays.copyOf(pathOffsets, count + 1), Arrays.copyOf(weights, count));
+		}
+	}
+}
@@ -0,0 +1,212 @@
+package haiku;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Finds blocked patterns (single words, phrases of several words, or parts of words) in generated text,
+ * in a single pass over the text however many patterns there are.
+ *
+ * The patterns are compiled into an Aho-Corasick automaton, stored as a complete transition table, so
+ * scanning costs one array lookup per character. Text and patterns are compared in normalized form:
+ * letters are lower-cased, and every run of other characters (spaces, line breaks, punctuation) is a
+ * single space. Patterns therefore match across the line breaks and commas of a haiku, and a pattern
+ * can be limited to whole words by surrounding it with spaces (" ant " matches "ant", but not "pants");
+ * the start and end of the text count as spaces.
+ *
+ * A filter is immutable, and can be shared by any number of threads.
+ */
+public class OutputFilter
+{
+	//-- symbol 0 is a space, 1-26 are the letters a-z, and 27 is any other letter (so, for instance,
+	//   all accented letters are treated as the same letter)
+	private static final int SPACE = 0;
+	private static final int OTHER = 27;
+	private static final int SYMBOLS = 28;
+
+	//-- transitions[state * SYMBOLS + symbol] is the state the automaton moves to
+	private final int[] transitions;
+
+	//-- for each state, the index of a pattern that ends there (or at a suffix of it), or -1
+	private final int[] matches;
+
+	private final List<String> patterns;
+
+
+
+	/**
+	 * Compiles a filter that matches any of the given patterns. Patterns without any letters are ignored.
+	 */
+	public OutputFilter(Collection<String> patterns)
+	{
+		List<String> normalized = new ArrayList<String>();
+		for (String pattern : patterns)
+		{
+			String p = normalize(pattern);
+			if (p.trim().length() > 0)
+				normalized.add(p);
+		}
+		this.patterns = Collections.unmodifiableList(normalized);
+
+		//-- build the trie, with goto edges only; 0 marks a missing edge (the root is never a target)
+		List<int[]> trie = new ArrayList<int[]>();
+		List<Integer> output = new ArrayList<Integer>();
+		trie.add(new int[SYMBOLS]);
+		output.add(-1);
+
+		for (int p = 0; p < normalized.size(); p++)
+		{
+			String pattern = normalized.get(p);
+			int state = 0;
+
+			for (int i = 0; i < pattern.length(); i++)
+			{
+				int symbol = symbolOf(pattern.charAt(i));
+				if (trie.get(state)[symbol] == 0)
+				{
+					trie.get(state)[symbol] = trie.size();
+					trie.add(new int[SYMBOLS]);
+					output.add(-1);
+				}
+				state = trie.get(state)[symbol];
+			}
+
+			if (output.get(state) < 0)
+				output.set(state, p);
+		}
+
+		//-- turn the trie into a complete automaton, breadth first, following failure links
+		int states = trie.size();
+		transitions = new int[states * SYMBOLS];
+		matches = new int[states];
+		int[] failure = new int[states];
+
+		for (int state = 0; state < states; state++)
+			matches[state] = output.get(state);
+
+		Queue<Integer> queue = new LinkedList<Integer>();
+		for (int symbol = 0; symbol < SYMBOLS; symbol++)
+		{
+			int next = trie.get(0)[symbol];
+			transitions[symbol] = next;
+			if (next != 0)
+				queue.add(next);
+		}
+
+		while (!queue.isEmpty())
+		{
+			int state = queue.remove();
+			if (matches[state] < 0)
+				matches[state] = matches[failure[state]];
+
+			for (int symbol = 0; symbol < SYMBOLS; symbol++)
+			{
+				int next = trie.get(state)[symbol];
+				int fallback = transitions[failure[state] * SYMBOLS + symbol];
+
+				if (next == 0)
+					transitions[state * SYMBOLS + symbol] = fallback;
+				else
+				{
+					transitions[state * SYMBOLS + symbol] = next;
+					failure[next] = fallback;
+					queue.add(next);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the normalized patterns of this filter.
+	 */
+	public List<String> getPatterns() {
+		return patterns;
+	}
+
+
+	/**
+	 * Returns true if the text contains any of the patterns.
+	 */
+	public boolean matches(CharSequence text) {
+		return find(text) != null;
+	}
+
+
+	/**
+	 * Returns the (normalized) pattern that is found first in the text, or null if there is none.
+	 */
+	public String find(CharSequence text)
+	{
+		if (patterns.isEmpty())
+			return null;
+
+		int state = transitions[SPACE];
+		boolean space = true;
+
+		for (int i = 0; i <= text.length(); i++)
+		{
+			int symbol = (i < text.length()) ? symbolOf(text.charAt(i)) : SPACE;
+
+			//-- a run of separators is a single space
+			if (symbol == SPACE)
+			{
+				if (space)
+					continue;
+				space = true;
+			}
+			else
+				space = false;
+
+			state = transitions[state * SYMBOLS + symbol];
+			if (matches[state] >= 0)
+				return patterns.get(matches[state]);
+		}
+
+		return null;
+	}
+
+
+	/**
+	 * Returns the text in the form that patterns are matched against: lower case, with every run of
+	 * characters other than letters replaced by a single space.
+	 */
+	public static String normalize(CharSequence text)
+	{
+		StringBuilder result = new StringBuilder(text.length());
+		boolean space = false;
+
+		for (int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+
+			if (Character.isLetter(c))
+			{
+				result.append(Character.toLowerCase(c));
+				space = false;
+			}
+			else if (!space)
+			{
+				result.append(' ');
+				space = true;
+			}
+		}
+
+		return result.toString();
+	}
+
+
+	private static int symbolOf(char c)
+	{
+		if (c >= 'a' && c <= 'z')
+			return c - 'a' + 1;
+		if (c >= 'A' && c <= 'Z')
+			return c - 'A' + 1;
+
+		return Character.isLetter(c) ? OTHER : SPACE;
+	}
+}
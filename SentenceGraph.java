@@ -1,5 +1,6 @@
 package haiku;
 
+import java.util.Arrays;
 import java.util.Random;
 
 public class SentenceGraph {
@@ -42,6 +43,24 @@ public class SentenceGraph {
 	//-- an internal cursor; this stores the index of the vertex last visited
 	private int iterator;
 	
+	//-- source of the random variation in edge selection
+	private final Random random;
+	
+	//-- the fraction of weight by which nextEdge randomly varies each edge
+	private static final double VARIANCE = 0.2;
+	
+	//-- the number of distinct random variations (see getAdjustedWeight)
+	private static final int VARIATIONS = 10;
+	
+	//-- optional learned adjustments to edge weights (null when disabled)
+	private EdgeLearner learner;
+	
+	//-- undo journal of every change since the last commit: the changed cell (row * size + column, 
+	//   or -1 for the cursor) and its previous value, oldest first
+	private int[] journalCells = new int[64];
+	private double[] journalValues = new double[64];
+	private int journalSize;
+	
 	
 	
 	/************************************\
@@ -50,8 +69,55 @@ public class SentenceGraph {
 	\************************************/
 
 	public SentenceGraph() {
+		this(new Random());
+	}
+	
+	
+	/**
+	 * Creates a graph that draws its random edge variation from the given source, so that a seeded
+	 * source makes traversals repeatable.
+	 */
+	public SentenceGraph(Random random) 
+	{
+		this.random = random;
 		reset();
 	}
+	
+	
+	/**
+	 * Creates a copy of the given graph, including its current edge weights and cursor position.
+	 * The copy shares the original's source of randomness.
+	 */
+	public SentenceGraph(SentenceGraph other) {
+		this(other, other.random);
+	}
+	
+	
+	/**
+	 * Creates a copy of the given graph, including its current edge weights and cursor position,
+	 * that draws its random edge variation from its own source.
+	 */
+	public SentenceGraph(SentenceGraph other, Random random) 
+	{
+		this.random = random;
+		learner = other.learner;
+		matrix = new double[other.matrix.length][];
+		copyFrom(other);
+	}
+	
+	
+	/**
+	 * Replaces this graph's edge weights and cursor position with those of another graph.
+	 * The source of randomness and the learner are kept.
+	 */
+	public void copyFrom(SentenceGraph other) 
+	{
+		iterator = other.iterator;
+		journalSize = 0;
+		
+		for(int i = 0; i < matrix.length; i++)
+			matrix[i] = other.matrix[i].clone();
+	}
 
 	
 	
@@ -70,6 +136,13 @@ public class SentenceGraph {
 		return iterator;
 	}
 
+	/**
+	 * Moves the internal cursor directly to the given vertex, without traversing or adjusting any edges.
+	 */
+	public void moveTo(int index) {
+		setIterator(index);
+	}
+
 	/**
 	 * Returns the part of speech for a provided vertex.
 	 */
@@ -81,14 +154,43 @@ public class SentenceGraph {
 	/**
 	 * Finds the connecting edge linking the current vertex to another that's weighted most heavily.
 	 */
-	public int nextEdge(int currentNode) 
+	public int nextEdge(int currentNode) {
+		return nextEdge(currentNode, -1);
+	}
+	
+	
+	/**
+	 * Finds the connecting edge linking the current vertex to another that's weighted most heavily,
+	 * scaling each edge weight by what the learner (if any) has learned about it for the given number
+	 * of syllables left in the line.
+	 * 
+	 * @param syllablesLeft the syllables left in the line, or -1 if unknown (no learned adjustment)
+	 */
+	public int nextEdge(int currentNode, int syllablesLeft) {
+		return nextEdge(currentNode, syllablesLeft, 0);
+	}
+	
+	
+	/**
+	 * Finds the connecting edge linking the current vertex to another that's weighted most heavily,
+	 * leaving out the edges to every vertex whose bit is set in (excluded), e.g. edges already tried.
+	 * 
+	 * @param syllablesLeft the syllables left in the line, or -1 if unknown (no learned adjustment)
+	 * @param excluded a bit mask of vertices (bit (i) for vertex i) that must not be chosen
+	 * @return the index of the chosen vertex, or -1 if there is none
+	 */
+	public int nextEdge(int currentNode, int syllablesLeft, int excluded) 
 	{
 		double max = 0.0;  // The largest weight for any edge found so far
 		int target = -1;   // The index of the node with the largest edge weight
 		
 		for(int i = 0; i < data.length; i++) 
 		{
-			double total = getAdjustedWeight(currentNode, i, 0.2);
+			if ((excluded & (1 << i)) != 0)
+				continue;
+			
+			double scale = (learner == null || syllablesLeft < 0) ? 1.0 : learner.factor(currentNode, i, syllablesLeft);
+			double total = getAdjustedWeight(currentNode, i, VARIANCE, scale);
 			
 			if(total > max) 
 			{
@@ -97,13 +199,103 @@ public class SentenceGraph {
 			}
 		}
 		
-		iterator = target;
 		System.out.println("         index of heaviest edge: A[" + target + "]  (" + max + ")");
 		
-		//-- adjust any edge weights that have changed from this move
+		if (target >= 0)
+			traverse(currentNode, target);
+		return target;
+	}
+	
+	
+	/**
+	 * Travels along the edge from one vertex to another, moving the cursor and adjusting 
+	 * any edge weights that change as a result of this move.
+	 */
+	public void traverse(int currentNode, int target) 
+	{
+		setIterator(target);
 		adjustMatrix(currentNode, target);
+	}
+	
+	
+	
+	/************************************\
+	 *         UNDO JOURNAL
+	 * 
+	\************************************/
+	
+	/**
+	 * Returns a checkpoint of the current edge weights and cursor position, which rollback can return to.
+	 * Checkpoints stay valid until the next commit, reset or copyFrom.
+	 */
+	public int checkpoint() {
+		return journalSize;
+	}
+	
+	
+	/**
+	 * Undoes every change to the edge weights and cursor made since the given checkpoint, 
+	 * in time proportional to the number of changes.
+	 */
+	public void rollback(int checkpoint) 
+	{
+		if (checkpoint < 0 || checkpoint > journalSize)
+			throw new IllegalArgumentException("checkpoint " + checkpoint + " is no longer valid");
 		
-		return target;
+		while (journalSize > checkpoint) 
+		{
+			journalSize--;
+			int cell = journalCells[journalSize];
+			
+			if (cell < 0)
+				iterator = (int) journalValues[journalSize];
+			else
+				matrix[cell / data.length][cell % data.length] = journalValues[journalSize];
+		}
+	}
+	
+	
+	/**
+	 * Keeps every change made so far, discarding the journal (and invalidating all checkpoints).
+	 */
+	public void commit() {
+		journalSize = 0;
+	}
+	
+	
+	private void setIterator(int index) 
+	{
+		if (index != iterator)
+			record(-1, iterator);
+		
+		iterator = index;
+	}
+	
+	
+	/**
+	 * Sets the weight of an edge, recording its previous weight in the journal.
+	 */
+	private void write(int i, int j, double v) 
+	{
+		if (matrix[i][j] == v)
+			return;
+		
+		record(i * data.length + j, matrix[i][j]);
+		matrix[i][j] = v;
+	}
+	
+	
+	private void record(int cell, double previous) 
+	{
+		if (journalSize == journalCells.length) 
+		{
+			journalCells = Arrays.copyOf(journalCells, journalSize * 2);
+			journalValues = Arrays.copyOf(journalValues, journalSize * 2);
+		}
+		
+		journalCells[journalSize] = cell;
+		journalValues[journalSize] = previous;
+		journalSize++;
 	}
 	
 	
@@ -119,12 +311,24 @@ public class SentenceGraph {
 	 * @param current the index of the previous node (visited BEFORE traversing the edge)
 	 * @param destination the index of the next (target) node (to be visited AFTER traversing the edge) 
 	 * @param variance the percentage of total weight that is affected by a random multiplier
+	 * @param scale a factor that the stored weight is multiplied by before the random variation is added
 	 */
-	private double getAdjustedWeight(int current, int destination, double variance) 
+	private double getAdjustedWeight(int current, int destination, double variance, double scale) 
 	{
-		double r = (new Random().nextInt(10) / 5.0) - 1.0;   // a random decimal  [0 < r < 10]
-		double e = matrix[current][destination];			 // the weight of this edge (recorded in matrix)		
+		double r = variation(random.nextInt(VARIATIONS));   // a random decimal  [-1.0 <= r < 1.0]
+		double e = matrix[current][destination] * scale;	 // the (learned) weight of this edge		
 		
+		return adjust(e, r, variance);
+	}
+	
+	
+	private static double variation(int n) {
+		return (n / 5.0) - 1.0;
+	}
+	
+	
+	private static double adjust(double e, double r, double variance) 
+	{
 		double result = e + (r * variance);
 		
 		/*
@@ -138,6 +342,58 @@ public class SentenceGraph {
 	}
 	
 	
+	/**
+	 * Returns, for each vertex, the probability that nextEdge(currentNode) chooses it from the current 
+	 * edge weights (without learned adjustments or exclusions). Since every edge's random variation takes 
+	 * one of a few equally likely values, this is exact. The probabilities add up to less than 1.0 by the 
+	 * chance that no vertex is chosen.
+	 */
+	public double[] edgeProbabilities(int currentNode) 
+	{
+		double[][] values = new double[data.length][VARIATIONS];
+		for (int i = 0; i < data.length; i++)
+			for (int n = 0; n < VARIATIONS; n++)
+				values[i][n] = adjust(matrix[currentNode][i], variation(n), VARIANCE);
+		
+		//-- vertex i is chosen with the value v if v is positive, every earlier vertex's value is 
+		//   less than v, and no later vertex's value is greater (the first of equal values wins)
+		double[] result = new double[data.length];
+		for (int i = 0; i < data.length; i++)
+			for (int n = 0; n < VARIATIONS; n++) 
+			{
+				double v = values[i][n];
+				if (v <= 0.0)
+					continue;
+				
+				double p = 1.0 / VARIATIONS;
+				for (int j = 0; j < data.length && p > 0.0; j++) 
+				{
+					if (j == i)
+						continue;
+					
+					int below = 0;
+					for (double w : values[j])
+						if (w < v || (j > i && w == v))
+							below++;
+					
+					p *= (double) below / VARIATIONS;
+				}
+				
+				result[i] += p;
+			}
+		
+		return result;
+	}
+	
+	
+	/**
+	 * Sets the learner whose adjustments are applied to edge weights, or null for none.
+	 */
+	public void setLearner(EdgeLearner learner) {
+		this.learner = learner;
+	}
+	
+	
 	/**
 	 * Determine whether the given vertex has any accessible, adjacent edges.
 	 */
@@ -270,6 +526,7 @@ public class SentenceGraph {
 	public void reset() 
 	{
 		iterator = 0;
+		journalSize = 0;
 							// 0	1	 2	 3	   4   5    6     7    8    9    10  11    12
 						   //start adv* prep art  adj  n    v    adv* prep art  adj* n    end <--DESTINATION
 		matrix = new double[][]{ 																
@@ -298,21 +555,21 @@ public class SentenceGraph {
 	 * Multiply the weight of an edge by the provided amount.
 	 */
 	public void modifyEdge(int source, int target, double mod) {
-		matrix[source][target] = mod * matrix[source][target];
+		write(source, target, mod * matrix[source][target]);
 	}
 	
 	
 	public void setEdge(int i, int j, double v) {
-		matrix[i][j] = v;
+		write(i, j, v);
 	}
 	
 	
 	public void addEdge(int i, int j) {
-		matrix[i][j] = 1.0;
+		write(i, j, 1.0);
 	}
 	
 	public void removeEdge(int i, int j) {
-		matrix[i][j] = 0.0;
+		write(i, j, 0.0);
 	}
 	
 	
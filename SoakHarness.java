@@ -0,0 +1,344 @@
+package haiku;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * A long-running regression harness for haiku generation.
+ *
+ * The harness generates a fixed number of haikus from fixed seeds against several dictionaries (the
+ * full dictionary, a small one, a skewed one with few verbs and adverbs, and a large synthetic one),
+ * and measures, for each, the dead ends backtracked out of and retries per haiku, the fraction of
+ * lines that failed, and the latency distribution. In "record" mode the measurements are stored in a
+ * baseline file; in "check" mode they are compared against it, and the harness exits with status 1
+ * and a report of every measurement that regressed past its tolerance.
+ *
+ * Dead ends, retries and line failures depend only on the seeds, so they reproduce exactly until the
+ * generator changes; latencies depend on the machine, so their tolerances are wider. A tolerance can
+ * be overridden by a "tolerance.(measurement)" entry in the baseline file.
+ *
+ * Usage: java haiku.SoakHarness (check|record) [baseline file] [haikus per dictionary] [synthetic words]
+ */
+public class SoakHarness
+{
+	public static final String DEFAULT_BASELINE = "soak-baseline.properties";
+	public static final int DEFAULT_HAIKUS = 2000;
+	public static final int DEFAULT_SYNTHETIC_WORDS = 1000000;
+
+	//-- the seed that every run's haiku seeds are derived from
+	private static final long SEED = 0x5EEDL;
+
+	//-- haikus generated (from other seeds) before each dictionary is measured, so that latencies don't include warm-up
+	private static final int WARMUP_HAIKUS = 200;
+
+	private static final String[] MEASUREMENTS = {
+		"backtracksPerHaiku", "retriesPerHaiku", "lineFailureRate",
+		"latencyP50Micros", "latencyP99Micros", "latencyP999Micros"
+	};
+
+	//-- the fraction by which each measurement may grow before it counts as a regression
+	private static final double[] DEFAULT_TOLERANCES = { 0.10, 0.10, 0.10, 0.50, 1.00, 2.00 };
+
+	//-- growth below this absolute amount is never a regression, so that measurements near 0 aren't flagged for noise
+	private static final double[] SLACK = { 0.05, 0.01, 0.001, 50, 200, 500 };
+
+	private final HaikuGenerator generator = new HaikuGenerator();
+	private final int haikus;
+	private final int syntheticWords;
+
+
+
+	/************************************\
+	 *         CONSTRUCTOR AND MAIN
+	 *
+	\************************************/
+
+	/**
+	 * @param haikus the number of haikus measured per dictionary
+	 * @param syntheticWords the number of words in the synthetic dictionary
+	 */
+	public SoakHarness(int haikus, int syntheticWords)
+	{
+		if (haikus < 1 || syntheticWords < 1)
+			throw new IllegalArgumentException("haikus and syntheticWords must be positive");
+
+		this.haikus = haikus;
+		this.syntheticWords = syntheticWords;
+	}
+
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 1 || !(args[0].equals("check") || args[0].equals("record")))
+		{
+			System.err.println("usage: SoakHarness <check|record> [baseline file] [haikus per dictionary] [synthetic words]");
+			System.exit(2);
+		}
+
+		boolean record = args[0].equals("record");
+		String baselineFile = (args.length > 1) ? args[1] : DEFAULT_BASELINE;
+		int haikus = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_HAIKUS;
+		int syntheticWords = (args.length > 3) ? Integer.parseInt(args[3]) : DEFAULT_SYNTHETIC_WORDS;
+
+		//-- generation prints traces to System.out
+		PrintStream console = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+		Properties current = new SoakHarness(haikus, syntheticWords).run("dictionary.txt", console);
+		System.setOut(console);
+
+		if (record)
+		{
+			OutputStream out = new FileOutputStream(baselineFile);
+			try {
+				current.store(out, "haiku soak baseline: " + haikus + " haikus per dictionary");
+			} finally {
+				out.close();
+			}
+			System.out.println("Baseline written to " + baselineFile);
+			return;
+		}
+
+		Properties baseline = new Properties();
+		InputStream in = new FileInputStream(baselineFile);
+		try {
+			baseline.load(in);
+		} finally {
+			in.close();
+		}
+
+		List<String> regressions = compare(baseline, current);
+		if (regressions.isEmpty())
+		{
+			System.out.println("No regressions against " + baselineFile);
+			return;
+		}
+
+		System.out.println(regressions.size() + " regression(s) against " + baselineFile + ":");
+		for (String regression : regressions)
+			System.out.println("  " + regression);
+		System.exit(1);
+	}
+
+
+
+	/************************************\
+	 *         MEASURING
+	 *
+	\************************************/
+
+	/**
+	 * Loads the dictionary file, derives the test dictionaries from it, and measures each.
+	 *
+	 * @param report where to print each dictionary's measurements as they are taken
+	 * @return every measurement, keyed "(dictionary).(measurement)"
+	 */
+	public Properties run(String dictionaryFile, PrintStream report) throws IOException
+	{
+		DictionaryRegistry dictionaries = generator.getDictionaries();
+		Dictionary full = generator.loadDictionary("full", dictionaryFile);
+
+		dictionaries.register("small", sample(full, 60, 60, 60));
+		dictionaries.register("skewed", sample(full, Integer.MAX_VALUE, 15, 15));
+		dictionaries.register("synthetic", synthetic(full, syntheticWords, dictionaries.getPool()));
+
+		Properties results = new Properties();
+		for (String name : new String[] { "full", "small", "skewed", "synthetic" })
+		{
+			generator.useDictionary(name);
+			measure(name, results);
+
+			report.printf(Locale.ROOT, "%-10s", name);
+			for (String measurement : MEASUREMENTS)
+				report.print("  " + measurement + "=" + results.getProperty(name + "." + measurement));
+			report.println();
+		}
+
+		return results;
+	}
+
+
+	/**
+	 * Generates the test haikus from the current dictionary and stores their measurements.
+	 */
+	private void measure(String name, Properties results)
+	{
+		HaikuMetrics metrics = HaikuGenerator.getMetrics();
+
+		for (int i = 0; i < WARMUP_HAIKUS; i++)
+			generator.generate(HaikuCoordinator.seedFor(~SEED, i));
+
+		metrics.reset();
+		for (int i = 0; i < haikus; i++)
+			generator.generate(HaikuCoordinator.seedFor(SEED, i));
+
+		double[] values = {
+			metrics.getAverageBacktracks(),
+			(double) metrics.getRetries() / metrics.getHaikusGenerated(),
+			metrics.getLineFailureRate(),
+			metrics.getLatencyP50Micros(),
+			metrics.getLatencyP99Micros(),
+			metrics.getLatencyP999Micros()
+		};
+
+		for (int m = 0; m < MEASUREMENTS.length; m++)
+			results.setProperty(name + "." + MEASUREMENTS[m], String.format(Locale.ROOT, "%.4f", values[m]));
+	}
+
+
+	/**
+	 * Compares measurements against a baseline.
+	 *
+	 * @return a description of each measurement that regressed, or that the baseline has and the current run lacks
+	 */
+	public static List<String> compare(Properties baseline, Properties current)
+	{
+		List<String> regressions = new ArrayList<String>();
+		List<String> keys = new ArrayList<String>(baseline.stringPropertyNames());
+		Collections.sort(keys);
+
+		for (String key : keys)
+		{
+			int m = measurementOf(key);
+			if (m < 0 || key.startsWith("tolerance."))
+				continue;
+
+			if (current.getProperty(key) == null)
+			{
+				regressions.add(key + ": in the baseline, but not measured");
+				continue;
+			}
+
+			double expected = Double.parseDouble(baseline.getProperty(key));
+			double actual = Double.parseDouble(current.getProperty(key));
+			double tolerance = Double.parseDouble(baseline.getProperty("tolerance." + MEASUREMENTS[m],
+					String.valueOf(DEFAULT_TOLERANCES[m])));
+
+			if (actual > expected * (1.0 + tolerance) && actual - expected > SLACK[m])
+				regressions.add(String.format(Locale.ROOT, "%s: %.4f, baseline %.4f (%+.1f%%, tolerance %.0f%%)",
+						key, actual, expected, 100.0 * (actual - expected) / Math.max(expected, 1e-9), 100.0 * tolerance));
+		}
+
+		return regressions;
+	}
+
+
+	/**
+	 * Returns the index of the measurement that a key ends with, or -1.
+	 */
+	private static int measurementOf(String key)
+	{
+		for (int m = 0; m < MEASUREMENTS.length; m++)
+			if (key.endsWith("." + MEASUREMENTS[m]))
+				return m;
+
+		return -1;
+	}
+
+
+
+	/************************************\
+	 *         TEST DICTIONARIES
+	 *
+	\************************************/
+
+	/**
+	 * Returns a subset of the dictionary with at most the given number of nouns and adjectives, verbs,
+	 * and adverbs, chosen by a fixed seed. Articles and prepositions are always kept.
+	 */
+	static Dictionary sample(Dictionary dictionary, int nounsAndAdjectives, int verbs, int adverbs)
+	{
+		Random random = new Random(SEED);
+		List<String> words = new ArrayList<String>();
+
+		for (PartOfSpeech pos : PartOfSpeech.values())
+		{
+			List<String> candidates = new ArrayList<String>(dictionary.wordSet(pos));
+			Collections.sort(candidates);
+			Collections.shuffle(candidates, random);
+
+			int limit;
+			if (pos == PartOfSpeech.NOUN || pos == PartOfSpeech.ADJECTIVE)
+				limit = nounsAndAdjectives;
+			else if (pos == PartOfSpeech.VERB)
+				limit = verbs;
+			else if (pos == PartOfSpeech.ADVERB)
+				limit = adverbs;
+			else
+				limit = candidates.size();
+
+			words.addAll(candidates.subList(0, Math.min(limit, candidates.size())));
+		}
+
+		return dictionary.subset(words);
+	}
+
+
+	/**
+	 * Builds a dictionary of made-up words of one to four syllables, with the same proportion of each
+	 * part of speech as the given dictionary. The articles and prepositions are taken from it as they are.
+	 */
+	private static Dictionary synthetic(Dictionary dictionary, int size, WordPool pool)
+	{
+		String[] onsets = { "b", "br", "d", "f", "g", "gl", "k", "l", "m", "n", "p", "pl", "r", "s", "st", "t", "tr", "v", "w", "z" };
+		String[] vowels = { "a", "e", "i", "o", "u" };
+		String[] codas = { "", "", "n", "m", "r", "s", "t", "ck" };
+
+		Random random = new Random(SEED);
+		Dictionary result = new Dictionary(pool);
+		PartOfSpeech[] generated = { PartOfSpeech.NOUN, PartOfSpeech.ADJECTIVE, PartOfSpeech.VERB, PartOfSpeech.ADVERB };
+
+		int total = 0;
+		for (PartOfSpeech pos : generated)
+			total += dictionary.wordSet(pos).size();
+
+		for (PartOfSpeech pos : PartOfSpeech.values())
+			if (pos != PartOfSpeech.BLANK && !contains(generated, pos))
+				for (String word : dictionary.wordSet(pos))
+					result.add(word, pos);
+
+		StringBuilder word = new StringBuilder();
+		for (PartOfSpeech pos : generated)
+		{
+			long count = (long) size * dictionary.wordSet(pos).size() / Math.max(total, 1);
+
+			for (long i = 0; i < count; i++)
+			{
+				word.setLength(0);
+				int syllables = 1 + random.nextInt(4);
+
+				for (int s = 0; s < syllables; s++)
+					word.append(onsets[random.nextInt(onsets.length)])
+						.append(vowels[random.nextInt(vowels.length)])
+						.append(codas[random.nextInt(codas.length)]);
+
+				if (pos == PartOfSpeech.ADVERB)
+					word.append("ly");
+
+				result.add(word.append(' ').toString(), pos);
+			}
+		}
+
+		return result;
+	}
+
+
+	private static boolean contains(PartOfSpeech[] array, PartOfSpeech pos)
+	{
+		for (PartOfSpeech element : array)
+			if (element == pos)
+				return true;
+
+		return false;
+	}
+}
@@ -0,0 +1,46 @@
+package haiku;
+
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
+/**
+ * A pool of interned words, shared by dictionaries so that a word appearing in several of them
+ * is stored only once.
+ *
+ * The pool holds its words weakly: once no dictionary holds a word any more (because every dictionary
+ * containing it was removed from its registry, or replaced by a reload), the word is released by the
+ * next garbage collection instead of staying in the pool.
+ */
+public class WordPool
+{
+	//-- each word is mapped to a weak reference to itself, so that neither the key nor the value keeps it alive
+	private final WeakHashMap<String, WeakReference<String>> words = new WeakHashMap<String, WeakReference<String>>();
+
+
+	/**
+	 * Returns the pooled copy of the given word, adding the word to the pool if it is not already there.
+	 */
+	public synchronized String intern(String word)
+	{
+		if (word == null)
+			return null;
+
+		WeakReference<String> reference = words.get(word);
+		String pooled = (reference == null) ? null : reference.get();
+
+		if (pooled != null)
+			return pooled;
+
+		words.put(word, new WeakReference<String>(word));
+		return word;
+	}
+
+
+	/**
+	 * Returns the number of distinct words in this pool. Words that are no longer used by any dictionary
+	 * are counted until they are garbage collected.
+	 */
+	public synchronized int size() {
+		return words.size();
+	}
+}